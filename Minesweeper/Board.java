@@ -7,11 +7,14 @@
  * 
  * This board may be used for a variety of games, under the condition that
  * the gameplay of said game is based on a two-dimensional grid, and that
- * each spot on the board has a finite amount of states (less than 2^32).
+ * each spot on the board has a finite amount of states (at most 2^8).
  * 
- * The "pieces" of the board are represented by number; each piece has a 
- * unique number. The number 0, however, signifies an empty cell (one that
- * does not contain a piece).
+ * The state of every cell is packed into a single byte of one flat array,
+ * so that the whole board is stored contiguously. The state 0 signifies an
+ * empty cell (one that does not contain a piece). Subclasses may store the
+ * bytes elsewhere, such as MappedBoard, which keeps them in a file; they
+ * override the few methods that touch the array, and every other method
+ * goes through getState and setState.
  * 
  * Utility methods include checking if the board contains a certain cell, 
  * checking if a cell is occupied, setting a cell to a certain number,
@@ -24,9 +27,28 @@
  */
 
 public class Board {
-	boolean[][] grid;
+
+	/*
+	 * Every cell is packed into a single byte of the flat cells array, which
+	 * is indexed row * numCols + col. The layout of each byte is:
+	 * 
+	 *   bits 0-3  number of neighboring mines (0-8)
+	 *   bit  4    mine
+	 *   bit  5    revealed
+	 *   bit  6    flagged
+	 *   bit  7    question mark
+	 */
+	public static final int COUNT_MASK = 0x0F;
+	public static final int MINE = 0x10;
+	public static final int REVEALED = 0x20;
+	public static final int FLAGGED = 0x40;
+	public static final int QUESTIONED = 0x80;
+
+	byte[] cells;
 	private int numCols;
 	private int numRows;
+	private final Topology topology;
+	private final int[] adjacent = new int[Topology.MAX_DEGREE];
 	
 	/* Constructors */
 	
@@ -36,9 +58,27 @@ public class Board {
 	 * @param col Number of columns of the Board
 	 */
 	public Board(int row, int col){
-		this.grid = new boolean[row][col];
-		this.numRows = row;
-		this.numCols = col;
+		this(Topology.rectangular(row, col));
+	}
+	
+	/**
+	 * Creates an empty Board whose cells are arranged by the given Topology
+	 * @param topology The shape of the Board and the neighbors of each cell
+	 */
+	public Board(Topology topology){
+		this(topology, new byte[topology.getNumRows() * topology.getNumCols()]);
+	}
+	
+	/**
+	 * Creates a Board that keeps its cells in the given array
+	 * @param topology The shape of the Board and the neighbors of each cell
+	 * @param cells One byte per cell, or null if a subclass stores the cells
+	 */
+	protected Board(Topology topology, byte[] cells){
+		this.numRows = topology.getNumRows();
+		this.numCols = topology.getNumCols();
+		this.cells = cells;
+		this.topology = topology;
 	}
 	
 	/* Methods */
@@ -55,26 +95,112 @@ public class Board {
 	}
 	
 	/**
-	 * Sets all of the cells on the Board to false, effective ly clearing the Board
+	 * Resets all of the cells on the Board, effectively clearing the Board
 	 */
 	public void clear(){
-		grid = new boolean[numRows][numCols];
+		java.util.Arrays.fill(cells, (byte) 0);
+	}
+	
+	/**
+	 * @return A copy of the packed state of every cell
+	 */
+	public byte[] copyCells(){
+		return cells.clone();
+	}
+	
+	/**
+	 * Replaces the state of every cell with a copy made by copyCells
+	 * @param source Packed states of a Board of the same size
+	 */
+	public void loadCells(byte[] source){
+		System.arraycopy(source, 0, cells, 0, cells.length);
+	}
+
+	/**
+	 * @return Whether the cells are kept on the heap, where copying all of
+	 * them at once is cheap
+	 */
+	public boolean isOnHeap(){
+		return cells != null;
+	}
+
+	/**
+	 * Copies the packed states of a range of cells into an array
+	 * @param from Index of the first cell
+	 * @param dest Array to copy to
+	 * @param offset Index of dest to copy the first cell to
+	 * @param length Number of cells to copy
+	 */
+	public void copyCells(int from, byte[] dest, int offset, int length){
+		System.arraycopy(cells, from, dest, offset, length);
+	}
+
+	/**
+	 * Writes the mines of the Board as bits, eight cells per byte, with the
+	 * first cell in the lowest bit of the first byte.
+	 * @param dest Array to write to
+	 * @param offset Index of the first byte to write
+	 */
+	public void packMines(byte[] dest, int offset){
+		int squares = numRows * numCols;
+		int bytes = (squares + 7) / 8;
+		java.util.Arrays.fill(dest, offset, offset + bytes, (byte) 0);
+		for (int i = 0; i < squares; i++)
+			if (isMine(i))
+				dest[offset + (i >> 3)] |= 1 << (i & 7);
+	}
+
+	/**
+	 * Clears the Board and places the mines written by packMines, then
+	 * counts the neighboring mines of every cell.
+	 * @param source Array to read from
+	 * @param offset Index of the first byte to read
+	 */
+	public void unpackMines(byte[] source, int offset){
+		clear();
+		int squares = numRows * numCols;
+		for (int i = 0; i < squares; i++)
+			if ((source[offset + (i >> 3)] & (1 << (i & 7))) != 0)
+				setState(i, MINE);
+		int[] offsets = topology.getOffsets();
+		int[] indices = topology.getIndices();
+		for (int i = 0; i < squares; i++) {
+			if (!isMine(i))
+				continue;
+			if (offsets != null) {
+				for (int j = offsets[i]; j < offsets[i + 1]; j++)
+					setState(indices[j], getState(indices[j]) + 1);
+			} else {
+				int count = topology.getNeighbors(i, adjacent);
+				for (int j = 0; j < count; j++)
+					setState(adjacent[j], getState(adjacent[j]) + 1);
+			}
+		}
+	}
+
+	/**
+	 * @param row Row index of cell
+	 * @param col Column index of cell
+	 * @return The index of the cell within the flat array of cells
+	 */
+	public int indexOf(int row, int col){
+		return row * numCols + col;
 	}
 	
 	/**
-	 * Returns the value that is located within a cell. If the cell is out of bounds,
+	 * Returns whether a cell contains a mine. If the cell is out of bounds,
 	 * false is returned.
 	 * @param row Row index of cell
 	 * @param col Column index of cell
 	 * @return The boolean value of the cell.
 	 */
 	public boolean getCell(int row, int col){
-		return this.isValidCell(row, col) && grid[row][col];
+		return this.isValidCell(row, col) && isMine(indexOf(row, col));
 	}
 	
 	/**
-	 * Changes the cell of the Board to a specified value. If the cell is out of bounds,
-	 * nothing happnes, and false is returned.
+	 * Changes whether the cell of the Board holds a mine. If the cell is out of
+	 * bounds, nothing happnes, and false is returned.
 	 * @param row Row index of cell
 	 * @param col Column index of cell
 	 * @param newValue Boolean to set the cell equal to
@@ -84,12 +210,55 @@ public class Board {
 	public boolean setCell(int row, int col, boolean newValue){
 		if (this.isValidCell(row, col)){
 			boolean oldValue = getCell(row,col);
-			grid[row][col] = newValue;
+			setFlag(indexOf(row, col), MINE, newValue);
 			return oldValue;
 		}
 		return false;
 	}
 	
+	/**
+	 * @param index Index of cell
+	 * @return The packed state byte of the cell
+	 */
+	public int getState(int index){
+		return cells[index] & 0xFF;
+	}
+	
+	/**
+	 * Replaces the packed state byte of a cell.
+	 * @param index Index of cell
+	 * @param state The new packed state of the cell
+	 */
+	public void setState(int index, int state){
+		cells[index] = (byte) state;
+	}
+	
+	/**
+	 * Sets or clears one of the state bits of a cell.
+	 * @param index Index of cell
+	 * @param bit One of MINE, REVEALED, FLAGGED or QUESTIONED
+	 * @param value Whether the bit should be set
+	 */
+	public void setFlag(int index, int bit, boolean value){
+		int state = getState(index);
+		setState(index, value ? state | bit : state & ~bit);
+	}
+	
+	public boolean isMine(int index){return (getState(index) & MINE) != 0;}
+	public boolean isRevealed(int index){return (getState(index) & REVEALED) != 0;}
+	public boolean isFlagged(int index){return (getState(index) & FLAGGED) != 0;}
+	public boolean isQuestioned(int index){return (getState(index) & QUESTIONED) != 0;}
+	public int getCount(int index){return getState(index) & COUNT_MASK;}
+	
+	/**
+	 * Stores the number of neighboring mines of a cell.
+	 * @param index Index of cell
+	 * @param count Number of neighboring mines, between 0 and 8
+	 */
+	public void setCount(int index, int count){
+		setState(index, (getState(index) & ~COUNT_MASK) | count);
+	}
+	
 	/**
 	 * @return A String representation of the Board
 	 */
@@ -119,7 +288,7 @@ public class Board {
 			array+= "| ";
 			for (int col = 0; col < numCols; col++) {
 				String str;
-				if (grid[row][col]) str = "*";
+				if (isMine(indexOf(row, col))) str = "*";
 				else str = "O";
 				array += str + ", ";
 			}
@@ -130,5 +299,6 @@ public class Board {
 	
 	public int getNumRows(){return this.numRows;}
 	public int getNumCols(){return this.numCols;}
+	public Topology getTopology(){return this.topology;}
 	
 }
@@ -0,0 +1,159 @@
+/*
+ * BoardCache.java: Remembers recently generated Boards so that games which
+ * share a seed (daily challenges, replays, several players on one server)
+ * only generate their Board once.
+ *
+ * A Board is determined completely by its shape, its number of mines, the
+ * seed of the random placement and the first cell that was opened, and these
+ * together form the key of an entry. Each entry holds only the mines of the
+ * Board, one bit per cell as written by Board.packMines; a cached Board is
+ * restored with Board.unpackMines, which counts the neighbors again. This is
+ * an eighth of the size of the cells themselves, so eight times as many
+ * Boards fit in the same memory.
+ *
+ * The cache is bounded by the total size of its entries. When a new entry
+ * does not fit, the least recently used entries are evicted until it does.
+ */
+
+import java.util.*;
+
+public class BoardCache {
+
+	/**
+	 * Approximate cost, in bytes, of an entry apart from its cells.
+	 */
+	private static final int ENTRY_OVERHEAD = 96;
+
+	private final long maxBytes;
+	private long bytes = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	private final LinkedHashMap<Key, byte[]> entries = new LinkedHashMap<Key, byte[]>(16, 0.75f, true);
+
+	/* Constructor */
+
+	/**
+	 * Creates an empty cache.
+	 * @param maxBytes the most memory, in bytes, that the entries may take up
+	 */
+	public BoardCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/* Methods */
+
+	/**
+	 * @param key the description of the Board
+	 * @return the mines of the Board as written by Board.packMines, or null
+	 *         if it is not cached. The array is shared with the cache and must
+	 *         not be modified.
+	 */
+	public synchronized byte[] get(Key key) {
+		byte[] mines = entries.get(key);
+		if (mines == null) misses++;
+		else hits++;
+		return mines;
+	}
+
+	/**
+	 * Adds a Board to the cache, evicting the least recently used Boards if
+	 * there is not enough room. Boards larger than the whole cache are not
+	 * stored.
+	 * @param key the description of the Board
+	 * @param mines the mines of the Board as written by Board.packMines
+	 */
+	public synchronized void put(Key key, byte[] mines) {
+		long weight = weigh(mines);
+		if (weight > maxBytes)
+			return;
+		byte[] old = entries.put(key, mines);
+		if (old != null)
+			bytes -= weigh(old);
+		bytes += weight;
+
+		Iterator<byte[]> iterator = entries.values().iterator();
+		while (bytes > maxBytes && iterator.hasNext()) {
+			bytes -= weigh(iterator.next());
+			iterator.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Removes every entry. The statistics are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	private static long weigh(byte[] mines) {
+		return mines.length + ENTRY_OVERHEAD;
+	}
+
+	/* Accessors */
+
+	public synchronized int size() {return entries.size();}
+	public synchronized long getBytes() {return bytes;}
+	public long getMaxBytes() {return maxBytes;}
+	public synchronized long getHits() {return hits;}
+	public synchronized long getMisses() {return misses;}
+	public synchronized long getEvictions() {return evictions;}
+
+	/**
+	 * @return a summary of the contents and statistics of the cache
+	 */
+	public synchronized String toString() {
+		return "BoardCache[" + entries.size() + " boards, " + bytes + "/" + maxBytes
+				+ " bytes, " + hits + " hits, " + misses + " misses, "
+				+ evictions + " evictions]";
+	}
+
+	/**
+	 * Everything that determines the mines of a Board.
+	 */
+	public static final class Key {
+		private final Class<?> shape;
+		private final int rows;
+		private final int cols;
+		private final int mines;
+		private final long seed;
+		private final int firstCell;
+
+		/**
+		 * @param topology the shape of the Board
+		 * @param mines the number of mines
+		 * @param seed the seed of the random placement of the mines
+		 * @param firstCell the index of the cell that is kept free of mines
+		 */
+		public Key(Topology topology, int mines, long seed, int firstCell) {
+			this.shape = topology.getClass();
+			this.rows = topology.getNumRows();
+			this.cols = topology.getNumCols();
+			this.mines = mines;
+			this.seed = seed;
+			this.firstCell = firstCell;
+		}
+
+		public boolean equals(Object other) {
+			if (!(other instanceof Key))
+				return false;
+			Key key = (Key) other;
+			return shape == key.shape && rows == key.rows && cols == key.cols
+					&& mines == key.mines && seed == key.seed
+					&& firstCell == key.firstCell;
+		}
+
+		public int hashCode() {
+			int hash = shape.hashCode();
+			hash = 31 * hash + rows;
+			hash = 31 * hash + cols;
+			hash = 31 * hash + mines;
+			hash = 31 * hash + Long.hashCode(seed);
+			return 31 * hash + firstCell;
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * BoardDatasetGenerator.java: Generates large numbers of Minesweeper boards
+ * for solver research and writes them to a single file.
+ *
+ * Board number n is generated with the seed (seed + n), with its first cell
+ * opened in the middle of the board, so the file is reproducible no matter
+ * how many threads were used. Boards are generated in chunks by a pool of
+ * worker threads and written in order through a FileChannel.
+ *
+ * Only the mines of a board are stored, so they are placed straight into the
+ * bits of its record by Floyd's algorithm, without a Board or a Minesweeper
+ * game, and without counting neighbors. Like Minesweeper, the first cell is
+ * never a mine.
+ *
+ * File layout (all numbers big-endian):
+ *
+ *   header   magic, version, rows, cols, mines, boardsPerChunk, flags,
+ *            recordBytes, firstCell (nine ints)
+ *   chunks   boardsPerChunk records each (fewer in the last chunk), deflated
+ *            if bit 0 of flags is set
+ *   index    offset (long) and stored length (int) of every chunk
+ *   footer   indexOffset (long), boardCount (long), chunkCount (int), magic
+ *
+ * Each record is the mines of the board as bits, as written by
+ * Board.packMines. Every board has the same first cell, which is kept in the
+ * header.
+ *
+ * Usage: java BoardDatasetGenerator file rows cols mines count [seed [threads [-z]]]
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+public class BoardDatasetGenerator {
+
+	static final int MAGIC = 0x4D534453; // "MSDS"
+	static final int VERSION = 2;
+	static final int HEADER_BYTES = 36;
+	static final int INDEX_ENTRY_BYTES = 12;
+	static final int FOOTER_BYTES = 24;
+	static final int FLAG_COMPRESSED = 1;
+
+	public static final int DEFAULT_BOARDS_PER_CHUNK = 4096;
+
+	private final int rows;
+	private final int cols;
+	private final int mines;
+	private final long seed;
+	private final int threads;
+	private final boolean compressed;
+	private final int boardsPerChunk;
+	private final int recordBytes;
+	private final int firstCell;
+
+	/* Constructor */
+
+	/**
+	 * @param rows number of rows of each board
+	 * @param cols number of columns of each board
+	 * @param mines number of mines of each board
+	 * @param seed seed of the first board
+	 * @param threads number of worker threads
+	 * @param compressed whether chunks are deflated
+	 * @param boardsPerChunk number of boards in each chunk
+	 */
+	public BoardDatasetGenerator(int rows, int cols, int mines, long seed,
+			int threads, boolean compressed, int boardsPerChunk) {
+		this.rows = rows;
+		this.cols = cols;
+		this.mines = new Minesweeper(rows, cols, mines).getMines();
+		this.seed = seed;
+		this.threads = threads;
+		this.compressed = compressed;
+		this.boardsPerChunk = boardsPerChunk;
+		this.recordBytes = (rows * cols + 7) / 8;
+		this.firstCell = (rows / 2) * cols + cols / 2;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 5) {
+			System.err.println("Usage: java BoardDatasetGenerator file rows cols mines count [seed [threads [-z]]]");
+			return;
+		}
+		long seed = args.length > 5 ? Long.parseLong(args[5]) : 0;
+		int threads = args.length > 6 ? Integer.parseInt(args[6])
+				: Runtime.getRuntime().availableProcessors();
+		boolean compressed = args.length > 7 && args[7].equals("-z");
+
+		BoardDatasetGenerator generator = new BoardDatasetGenerator(
+				Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+				Integer.parseInt(args[3]), seed, threads, compressed,
+				DEFAULT_BOARDS_PER_CHUNK);
+		long start = System.nanoTime();
+		long count = Long.parseLong(args[4]);
+		generator.generate(Paths.get(args[0]), count);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d boards in %.2f s (%.0f boards/s)%n", count,
+				seconds, count / seconds);
+	}
+
+	/* Methods */
+
+	/**
+	 * Generates boards and writes them to a file, replacing its contents.
+	 * @param path the file to write
+	 * @param count the number of boards
+	 */
+	public void generate(Path path, long count) throws IOException, InterruptedException {
+		long chunks = (count + boardsPerChunk - 1) / boardsPerChunk;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		// at most this many chunks are held in memory at once
+		int window = 2 * threads;
+		ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<Future<byte[]>>();
+		long[] offsets = new long[(int) chunks];
+		int[] lengths = new int[(int) chunks];
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(cols)
+					.putInt(mines).putInt(boardsPerChunk)
+					.putInt(compressed ? FLAG_COMPRESSED : 0).putInt(recordBytes)
+					.putInt(firstCell);
+			header.flip();
+			writeFully(channel, header);
+
+			long submitted = 0;
+			for (int written = 0; written < chunks; written++) {
+				while (submitted < chunks && inFlight.size() < window) {
+					final long first = submitted * boardsPerChunk;
+					final int size = (int) Math.min(boardsPerChunk, count - first);
+					inFlight.add(pool.submit(new Callable<byte[]>() {
+						public byte[] call() {
+							return generateChunk(first, size);
+						}
+					}));
+					submitted++;
+				}
+				byte[] chunk;
+				try {
+					chunk = inFlight.poll().get();
+				} catch (ExecutionException e) {
+					throw new IOException("Could not generate chunk " + written, e.getCause());
+				}
+				offsets[written] = channel.position();
+				lengths[written] = chunk.length;
+				writeFully(channel, ByteBuffer.wrap(chunk));
+			}
+
+			long indexOffset = channel.position();
+			ByteBuffer index = ByteBuffer.allocate((int) chunks * INDEX_ENTRY_BYTES + FOOTER_BYTES);
+			for (int i = 0; i < chunks; i++)
+				index.putLong(offsets[i]).putInt(lengths[i]);
+			index.putLong(indexOffset).putLong(count).putInt((int) chunks).putInt(MAGIC);
+			index.flip();
+			writeFully(channel, index);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Generates consecutive boards and packs them into the bytes of a chunk.
+	 * @param first the number of the first board
+	 * @param size the number of boards
+	 * @return the chunk as it is stored in the file
+	 */
+	private byte[] generateChunk(long first, int size) {
+		byte[] records = new byte[size * recordBytes];
+		for (int i = 0; i < size; i++)
+			placeMines(new SplittableRandom(seed + first + i), records, i * recordBytes);
+		if (!compressed)
+			return records;
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		deflater.setInput(records);
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(records.length / 2);
+		byte[] buffer = new byte[1 << 16];
+		while (!deflater.finished())
+			out.write(buffer, 0, deflater.deflate(buffer));
+		deflater.end();
+		return out.toByteArray();
+	}
+
+	/**
+	 * Places the mines of one board as bits, by Floyd's algorithm, which
+	 * draws one random number per mine and needs no memory but the bits
+	 * themselves. Mines are drawn from the positions of every cell but the
+	 * first, which skip over it.
+	 * @param records the zeroed bits of the board, as written by
+	 *            Board.packMines
+	 * @param offset the index of the first byte of the board
+	 */
+	private void placeMines(SplittableRandom random, byte[] records, int offset) {
+		int positions = rows * cols - 1;
+		for (int j = positions - mines; j < positions; j++) {
+			int cell = cellAt(random.nextInt(j + 1));
+			if ((records[offset + (cell >> 3)] & 1 << (cell & 7)) != 0)
+				cell = cellAt(j);
+			records[offset + (cell >> 3)] |= 1 << (cell & 7);
+		}
+	}
+
+	/**
+	 * @return the cell at a position of the cells other than the first
+	 */
+	private int cellAt(int position) {
+		return position < firstCell ? position : position + 1;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+}
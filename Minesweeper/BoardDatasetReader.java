@@ -0,0 +1,188 @@
+/*
+ * BoardDatasetReader.java: Reads the boards written by BoardDatasetGenerator.
+ *
+ * Boards are read one chunk at a time through a FileChannel and unpacked
+ * into a single Board, which is reused for every record, so iterating over a
+ * file does not allocate anything per board. The index at the end of the
+ * file allows jumping to any board number.
+ *
+ * Typical use:
+ *
+ *   BoardDatasetReader reader = new BoardDatasetReader(path);
+ *   while (reader.next()) {
+ *       Board board = reader.getBoard();
+ *       ...
+ *   }
+ *   reader.close();
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.zip.*;
+
+public class BoardDatasetReader implements Closeable {
+
+	private final FileChannel channel;
+	private final int rows;
+	private final int cols;
+	private final int mines;
+	private final int boardsPerChunk;
+	private final boolean compressed;
+	private final int recordBytes;
+	private final long boardCount;
+	private final long[] offsets;
+	private final int[] lengths;
+
+	private final Board board;
+	private final Inflater inflater = new Inflater();
+
+	/* The stored bytes of the current chunk, and its records */
+	private ByteBuffer stored;
+	private final byte[] records;
+
+	private int chunk = -1;
+	private int recordsInChunk = 0;
+	private long position = 0;
+	private final int firstCell;
+
+	/* Constructor */
+
+	/**
+	 * Opens a file and reads its header and index.
+	 * @param path the file to read
+	 */
+	public BoardDatasetReader(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			ByteBuffer header = readAt(ByteBuffer.allocate(BoardDatasetGenerator.HEADER_BYTES), 0);
+			if (header.getInt() != BoardDatasetGenerator.MAGIC
+					|| header.getInt() != BoardDatasetGenerator.VERSION)
+				throw new IOException(path + " is not a board dataset");
+			rows = header.getInt();
+			cols = header.getInt();
+			mines = header.getInt();
+			boardsPerChunk = header.getInt();
+			compressed = (header.getInt() & BoardDatasetGenerator.FLAG_COMPRESSED) != 0;
+			recordBytes = header.getInt();
+			firstCell = header.getInt();
+
+			ByteBuffer footer = readAt(ByteBuffer.allocate(BoardDatasetGenerator.FOOTER_BYTES),
+					channel.size() - BoardDatasetGenerator.FOOTER_BYTES);
+			long indexOffset = footer.getLong();
+			boardCount = footer.getLong();
+			int chunks = footer.getInt();
+			if (footer.getInt() != BoardDatasetGenerator.MAGIC)
+				throw new IOException(path + " is incomplete");
+
+			ByteBuffer index = readAt(ByteBuffer.allocate(chunks
+					* BoardDatasetGenerator.INDEX_ENTRY_BYTES), indexOffset);
+			offsets = new long[chunks];
+			lengths = new int[chunks];
+			int largest = 0;
+			for (int i = 0; i < chunks; i++) {
+				offsets[i] = index.getLong();
+				lengths[i] = index.getInt();
+				largest = Math.max(largest, lengths[i]);
+			}
+			stored = ByteBuffer.allocate(largest);
+			records = compressed ? new byte[boardsPerChunk * recordBytes] : null;
+			board = new Board(rows, cols);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/* Methods */
+
+	/**
+	 * Moves to the next board and unpacks it into the shared Board.
+	 * @return false if there are no more boards
+	 */
+	public boolean next() throws IOException {
+		if (position >= boardCount)
+			return false;
+		int target = (int) (position / boardsPerChunk);
+		if (target != chunk)
+			loadChunk(target);
+		int offset = (int) (position % boardsPerChunk) * recordBytes;
+		byte[] source = compressed ? records : stored.array();
+		board.unpackMines(source, offset);
+		position++;
+		return true;
+	}
+
+	/**
+	 * Makes the next call to next() read the board with the given number.
+	 * @param boardNumber number of the board, starting at 0
+	 */
+	public void seek(long boardNumber) {
+		if (boardNumber < 0 || boardNumber > boardCount)
+			throw new IndexOutOfBoundsException("Board " + boardNumber + " of " + boardCount);
+		position = boardNumber;
+	}
+
+	private void loadChunk(int target) throws IOException {
+		stored.clear();
+		stored.limit(lengths[target]);
+		readAt(stored, offsets[target]);
+		recordsInChunk = (int) Math.min(boardsPerChunk, boardCount - (long) target * boardsPerChunk);
+		if (compressed) {
+			inflater.reset();
+			inflater.setInput(stored.array(), 0, lengths[target]);
+			int length = recordsInChunk * recordBytes;
+			int done = 0;
+			try {
+				while (done < length && !inflater.finished())
+					done += inflater.inflate(records, done, length - done);
+			} catch (DataFormatException e) {
+				throw new IOException("Chunk " + target + " is corrupt", e);
+			}
+			if (done != length)
+				throw new IOException("Chunk " + target + " is truncated");
+		}
+		chunk = target;
+	}
+
+	private ByteBuffer readAt(ByteBuffer buffer, long offset) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, offset);
+			if (read < 0)
+				throw new EOFException();
+			offset += read;
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	public void close() throws IOException {
+		inflater.end();
+		channel.close();
+	}
+
+	/* Accessors */
+
+	/**
+	 * @return the Board holding the current board. The same object is
+	 *         returned for every board, so it is overwritten by next().
+	 */
+	public Board getBoard() {return this.board;}
+
+	/**
+	 * @return the index of the cell that was opened first, which is the same
+	 *         on every board
+	 */
+	public int getFirstCell() {return this.firstCell;}
+
+	/**
+	 * @return the number of the board that the next call to next() reads
+	 */
+	public long getPosition() {return this.position;}
+
+	public long getBoardCount() {return this.boardCount;}
+	public int getNumRows() {return this.rows;}
+	public int getNumCols() {return this.cols;}
+	public int getMines() {return this.mines;}
+}
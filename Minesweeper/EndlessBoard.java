@@ -0,0 +1,418 @@
+/*
+ * EndlessBoard.java: A board that extends without limit in every direction,
+ * generated a chunk at a time as it is explored.
+ *
+ * The board is cut into square chunks of CHUNK_SIZE by CHUNK_SIZE cells.
+ * The mines of a chunk depend only on the seed of the world and the
+ * coordinates of the chunk, so a chunk can be generated, thrown away and
+ * generated again at any time, in any order. A chunk is generated the first
+ * time one of its cells is read or written; counting the neighbors of its
+ * edge cells also needs the mines of the eight chunks around it, which are
+ * generated for the purpose but not kept.
+ *
+ * Cells are packed into bytes as in the Board class. Only the most recently
+ * used chunks are kept in memory. A chunk that is evicted is simply dropped
+ * if nothing in it was opened or flagged, since it can be generated again.
+ * Otherwise its opened and flagged cells, which are all that cannot be
+ * generated again, are deflated and written to a spill file, from which
+ * they are read back if the chunk is needed again. Each spilled chunk keeps
+ * its slot in the file, and is written over it again while it fits; a chunk
+ * that has outgrown its slot moves to the end of the file, and once more
+ * than half of the file is slots left behind this way, the file is
+ * rewritten with only the latest slots. Memory and generation
+ * time therefore depend on the area that has been explored, not on the size
+ * of the board.
+ *
+ * Cells are addressed by x (column) and y (row), either of which may be
+ * negative.
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+public class EndlessBoard {
+
+	private static final int CHUNK_BITS = 5;
+	public static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	public static final int CHUNK_CELLS = CHUNK_SIZE * CHUNK_SIZE;
+
+	/* Bytes of the spilled state of a chunk before deflation: two bit sets */
+	private static final int SPILL_BYTES = 2 * CHUNK_CELLS / 8;
+
+	/* The spill file is never compacted while its unused slots are smaller */
+	private static final long MIN_COMPACT_BYTES = 1 << 20;
+
+	private final long seed;
+	private final int minesPerChunk;
+	private final int maxChunks;
+	private final File spillFile;
+
+	/* A cell whose block of neighbors holds no mines, or none */
+	private boolean safe = false;
+	private int safeX;
+	private int safeY;
+
+	private final LinkedHashMap<Long, Chunk> chunks;
+	private Chunk last;
+
+	/**
+	 * The slot in the spill file of every spilled chunk, as its position
+	 * shifted left by 16 bits, or'ed with the most bytes it can hold.
+	 */
+	private final HashMap<Long, Long> spilled = new HashMap<Long, Long>();
+	private RandomAccessFile spill;
+	private long deadBytes = 0;
+
+	private long generated = 0;
+	private long evictions = 0;
+	private long reloads = 0;
+	private long compactions = 0;
+
+	/* Scratch space for generating chunks */
+	private final long[][] mines = new long[9][CHUNK_CELLS / 64];
+	private final byte[] packed = new byte[SPILL_BYTES];
+	private final byte[] deflated = new byte[SPILL_BYTES + 64];
+
+	/* Constructor */
+
+	/**
+	 * @param seed the seed of the world
+	 * @param minesPerChunk the number of mines in each chunk, between an
+	 *            eighth and a half of its cells; the first opening of the
+	 *            game may remove a few
+	 * @param maxChunks the most chunks to keep in memory
+	 * @param spillFile where evicted chunks are written, or null for a
+	 *            temporary file
+	 */
+	public EndlessBoard(long seed, int minesPerChunk, int maxChunks, File spillFile) {
+		this.seed = seed;
+		// with fewer mines, the cells without neighboring mines could join
+		// into a single opening that never ends
+		this.minesPerChunk = Math.max(CHUNK_CELLS / 8, Math.min(CHUNK_CELLS / 2, minesPerChunk));
+		this.maxChunks = Math.max(1, maxChunks);
+		this.spillFile = spillFile;
+		this.chunks = new LinkedHashMap<Long, Chunk>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Long, Chunk> eldest) {
+				if (size() <= EndlessBoard.this.maxChunks)
+					return false;
+				evict(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/* Methods */
+
+	/**
+	 * @return the packed state of a cell, as in the Board class
+	 */
+	public int getState(int x, int y) {
+		return chunk(x, y).cells[(y & CHUNK_MASK) << CHUNK_BITS | (x & CHUNK_MASK)] & 0xFF;
+	}
+
+	/**
+	 * Replaces the packed state of a cell. The mine bit and the count must
+	 * not be changed.
+	 */
+	public void setState(int x, int y, int state) {
+		Chunk chunk = chunk(x, y);
+		chunk.cells[(y & CHUNK_MASK) << CHUNK_BITS | (x & CHUNK_MASK)] = (byte) state;
+		chunk.touched = true;
+	}
+
+	public boolean isMine(int x, int y) {return (getState(x, y) & Board.MINE) != 0;}
+	public boolean isRevealed(int x, int y) {return (getState(x, y) & Board.REVEALED) != 0;}
+	public boolean isFlagged(int x, int y) {return (getState(x, y) & Board.FLAGGED) != 0;}
+	public int getCount(int x, int y) {return getState(x, y) & Board.COUNT_MASK;}
+
+	/**
+	 * Keeps a cell and its eight neighbors free of mines, as for the first
+	 * cell opened in a game. Chunks already generated are generated again,
+	 * keeping the cells that were flagged.
+	 */
+	public void setSafeCell(int x, int y) {
+		safe = true;
+		safeX = x;
+		safeY = y;
+		for (Chunk chunk : chunks.values()) {
+			byte[] old = chunk.cells;
+			chunk.cells = generate(chunk.cx, chunk.cy);
+			for (int i = 0; i < CHUNK_CELLS; i++)
+				chunk.cells[i] |= old[i] & (Board.REVEALED | Board.FLAGGED | Board.QUESTIONED);
+		}
+	}
+
+	/**
+	 * Forgets every opened and flagged cell and the safe cell, starting a new
+	 * game on the same world.
+	 */
+	public void clear() {
+		chunks.clear();
+		last = null;
+		spilled.clear();
+		deadBytes = 0;
+		safe = false;
+		if (spill != null) {
+			try {
+				spill.setLength(0);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Closes the spill file.
+	 */
+	public void close() throws IOException {
+		if (spill != null)
+			spill.close();
+		spill = null;
+	}
+
+	private static long key(int cx, int cy) {
+		return (long) cx << 32 | (cy & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @return the chunk that holds a cell, generating or reloading it if it
+	 *         is not in memory
+	 */
+	private Chunk chunk(int x, int y) {
+		int cx = x >> CHUNK_BITS;
+		int cy = y >> CHUNK_BITS;
+		Chunk chunk = last;
+		if (chunk != null && chunk.cx == cx && chunk.cy == cy)
+			return chunk;
+		Long key = key(cx, cy);
+		chunk = chunks.get(key);
+		if (chunk == null) {
+			chunk = new Chunk(cx, cy, generate(cx, cy));
+			Long slot = spilled.get(key);
+			if (slot != null)
+				reload(chunk, slot);
+			chunks.put(key, chunk);
+		}
+		last = chunk;
+		return chunk;
+	}
+
+	/**
+	 * Generates the mines and counts of a chunk.
+	 */
+	private byte[] generate(int cx, int cy) {
+		generated++;
+		for (int dy = -1; dy <= 1; dy++)
+			for (int dx = -1; dx <= 1; dx++)
+				placeMines(cx + dx, cy + dy, mines[(dy + 1) * 3 + dx + 1]);
+
+		byte[] cells = new byte[CHUNK_CELLS];
+		for (int y = 0; y < CHUNK_SIZE; y++) {
+			for (int x = 0; x < CHUNK_SIZE; x++) {
+				int count = 0;
+				for (int ny = y - 1; ny <= y + 1; ny++)
+					for (int nx = x - 1; nx <= x + 1; nx++)
+						if ((nx != x || ny != y) && hasMine(nx, ny))
+							count++;
+				cells[y << CHUNK_BITS | x] = (byte) ((hasMine(x, y) ? Board.MINE : 0) | count);
+			}
+		}
+		return cells;
+	}
+
+	/**
+	 * @return whether a cell holds a mine, given coordinates relative to the
+	 *         chunk being generated, from -1 to CHUNK_SIZE
+	 */
+	private boolean hasMine(int x, int y) {
+		int block = ((y >> CHUNK_BITS) + 1) * 3 + (x >> CHUNK_BITS) + 1;
+		int cell = (y & CHUNK_MASK) << CHUNK_BITS | (x & CHUNK_MASK);
+		return (mines[block][cell >> 6] & 1L << cell) != 0;
+	}
+
+	/**
+	 * Places the mines of a chunk as bits, by Floyd's algorithm, with a
+	 * random number generator that depends only on the seed and the chunk.
+	 */
+	private void placeMines(int cx, int cy, long[] bits) {
+		Arrays.fill(bits, 0);
+		// the finalizer of SplitMix64
+		long z = seed + key(cx, cy) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		SplittableRandom random = new SplittableRandom(z ^ (z >>> 31));
+		for (int j = CHUNK_CELLS - minesPerChunk; j < CHUNK_CELLS; j++) {
+			int cell = random.nextInt(j + 1);
+			if ((bits[cell >> 6] & 1L << cell) != 0)
+				cell = j;
+			bits[cell >> 6] |= 1L << cell;
+		}
+		if (!safe)
+			return;
+		for (int y = safeY - 1; y <= safeY + 1; y++) {
+			for (int x = safeX - 1; x <= safeX + 1; x++) {
+				if (x >> CHUNK_BITS == cx && y >> CHUNK_BITS == cy) {
+					int cell = (y & CHUNK_MASK) << CHUNK_BITS | (x & CHUNK_MASK);
+					bits[cell >> 6] &= ~(1L << cell);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the opened and flagged cells of a chunk that is leaving memory
+	 * to its slot in the spill file, or to a new slot at the end of the file
+	 * if they do not fit.
+	 */
+	private void evict(Chunk chunk) {
+		evictions++;
+		if (chunk == last)
+			last = null;
+		if (!chunk.touched)
+			return;
+		Arrays.fill(packed, (byte) 0);
+		for (int i = 0; i < CHUNK_CELLS; i++) {
+			if ((chunk.cells[i] & Board.REVEALED) != 0)
+				packed[i >> 3] |= 1 << (i & 7);
+			if ((chunk.cells[i] & Board.FLAGGED) != 0)
+				packed[CHUNK_CELLS / 8 + (i >> 3)] |= 1 << (i & 7);
+		}
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		deflater.setInput(packed);
+		deflater.finish();
+		int length = deflater.deflate(deflated);
+		deflater.end();
+		try {
+			if (spill == null) {
+				File file = spillFile;
+				if (file == null) {
+					file = File.createTempFile("endless", ".chunks");
+					file.deleteOnExit();
+				}
+				spill = new RandomAccessFile(file, "rw");
+				spill.setLength(0);
+			}
+			Long key = key(chunk.cx, chunk.cy);
+			Long slot = spilled.get(key);
+			long position;
+			int capacity;
+			if (slot != null && length <= (int) (slot & 0xFFFF)) {
+				position = slot >>> 16;
+				capacity = (int) (slot & 0xFFFF);
+			} else {
+				if (slot != null)
+					deadBytes += 2 + (slot & 0xFFFF);
+				position = spill.length();
+				capacity = length;
+			}
+			spill.seek(position);
+			spill.writeShort(length);
+			spill.write(deflated, 0, length);
+			spilled.put(key, position << 16 | capacity);
+			if (deadBytes > MIN_COMPACT_BYTES && 2 * deadBytes > spill.length())
+				compact();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Rewrites the spill file with only the slots that are still in use,
+	 * each just large enough for what it holds.
+	 */
+	private void compact() throws IOException {
+		compactions++;
+		HashMap<Long, byte[]> records = new HashMap<Long, byte[]>();
+		for (Map.Entry<Long, Long> entry : spilled.entrySet()) {
+			spill.seek(entry.getValue() >>> 16);
+			byte[] record = new byte[spill.readUnsignedShort()];
+			spill.readFully(record);
+			records.put(entry.getKey(), record);
+		}
+		spill.setLength(0);
+		for (Map.Entry<Long, byte[]> entry : records.entrySet()) {
+			byte[] record = entry.getValue();
+			long position = spill.getFilePointer();
+			spill.writeShort(record.length);
+			spill.write(record);
+			spilled.put(entry.getKey(), position << 16 | record.length);
+		}
+		deadBytes = 0;
+	}
+
+	/**
+	 * Restores the opened and flagged cells of a chunk from the spill file.
+	 */
+	private void reload(Chunk chunk, long slot) {
+		reloads++;
+		try {
+			spill.seek(slot >>> 16);
+			int length = spill.readUnsignedShort();
+			spill.readFully(deflated, 0, length);
+			Inflater inflater = new Inflater();
+			inflater.setInput(deflated, 0, length);
+			inflater.inflate(packed);
+			inflater.end();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Damaged spill file", e);
+		}
+		for (int i = 0; i < CHUNK_CELLS; i++) {
+			if ((packed[i >> 3] & 1 << (i & 7)) != 0)
+				chunk.cells[i] |= Board.REVEALED;
+			if ((packed[CHUNK_CELLS / 8 + (i >> 3)] & 1 << (i & 7)) != 0)
+				chunk.cells[i] |= Board.FLAGGED;
+		}
+		chunk.touched = true;
+	}
+
+	/* Accessors */
+
+	public long getSeed() {return this.seed;}
+	public int getMinesPerChunk() {return this.minesPerChunk;}
+
+	/**
+	 * @return the number of chunks in memory
+	 */
+	public int getLoadedChunks() {return chunks.size();}
+
+	/**
+	 * @return the number of chunks whose state is in the spill file
+	 */
+	public int getSpilledChunks() {return spilled.size();}
+
+	/**
+	 * @return the number of times a chunk has been generated
+	 */
+	public long getGenerated() {return this.generated;}
+	public long getEvictions() {return this.evictions;}
+	public long getReloads() {return this.reloads;}
+	public long getCompactions() {return this.compactions;}
+
+	/**
+	 * @return the bytes of the spill file taken by slots no longer in use
+	 */
+	public long getDeadBytes() {return this.deadBytes;}
+
+	/**
+	 * The cells of one chunk.
+	 */
+	private static class Chunk {
+		final int cx;
+		final int cy;
+		byte[] cells;
+		/* whether any cell may have been opened or flagged */
+		boolean touched = false;
+
+		Chunk(int cx, int cy, byte[] cells) {
+			this.cx = cx;
+			this.cy = cy;
+			this.cells = cells;
+		}
+	}
+}
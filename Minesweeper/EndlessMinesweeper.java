@@ -0,0 +1,222 @@
+/*
+ * EndlessMinesweeper.java: The rules of Minesweeper on an EndlessBoard,
+ * which has no edges. The game cannot be won; it goes on until a mine is
+ * opened, and the score is the number of cells opened by then.
+ *
+ * The first cell opened, and its neighbors, are never mines. Openings on the
+ * board always end, since every chunk holds enough mines; still, a single
+ * move never opens more than MAX_OPENED cells, and the cells it would have
+ * opened next are left for chords on the cells around them.
+ *
+ * Moves are given one per line, with coordinates of the world, which may be
+ * negative:
+ *   o x y   opens a cell
+ *   f x y   places or removes a flag
+ *   c x y   opens the neighbors of an opened cell (a chord)
+ *   v x y   moves the view so that its top left cell is (x, y)
+ *   q       quits
+ *
+ * Usage: java EndlessMinesweeper [minesPerChunk [seed]]
+ */
+
+import java.io.*;
+import java.util.*;
+
+public class EndlessMinesweeper {
+
+	public static final int MAX_OPENED = 1 << 20;
+
+	private static final int VIEW_ROWS = 20;
+	private static final int VIEW_COLS = 60;
+
+	private final EndlessBoard board;
+
+	/* State of the current game */
+	private boolean started = false;
+	private boolean lost = false;
+	private long openedCells = 0;
+	private long flags = 0;
+	private int lostX;
+	private int lostY;
+
+	/* The cells opened by the current move */
+	private long openedByMove = 0;
+
+	/**
+	 * The moves, which act on the board through this game. Cells are
+	 * addressed by their x in the high half of a long and their y in the low
+	 * half.
+	 */
+	private final Rules rules = new Rules(new Rules.Field() {
+		public int getState(long cell) {
+			return board.getState((int) (cell >> 32), (int) cell);
+		}
+
+		public void setState(long cell, int state) {
+			board.setState((int) (cell >> 32), (int) cell, state);
+		}
+
+		public int getNeighbors(long cell, long[] dest) {
+			int x = (int) (cell >> 32);
+			int y = (int) cell;
+			int count = 0;
+			for (int ny = y - 1; ny <= y + 1; ny++)
+				for (int nx = x - 1; nx <= x + 1; nx++)
+					if (nx != x || ny != y)
+						dest[count++] = cell(nx, ny);
+			return count;
+		}
+
+		public boolean isOver() {
+			return lost;
+		}
+
+		public boolean opened(long cell, int state) {
+			if ((state & Board.MINE) != 0) {
+				lost = true;
+				lostX = (int) (cell >> 32);
+				lostY = (int) cell;
+				return false;
+			}
+			openedCells++;
+			return ++openedByMove < MAX_OPENED;
+		}
+	}, 8);
+
+	/* Constructor */
+
+	/**
+	 * @param board the board to play on
+	 */
+	public EndlessMinesweeper(EndlessBoard board) {
+		this.board = board;
+	}
+
+	/**
+	 * Runs the game in a terminal.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) throws IOException {
+		int mines = EndlessBoard.CHUNK_CELLS / 6;
+		long seed = new Random().nextLong();
+		if (args.length >= 1)
+			mines = Integer.parseInt(args[0]);
+		if (args.length >= 2)
+			seed = Long.parseLong(args[1]);
+		EndlessMinesweeper game = new EndlessMinesweeper(new EndlessBoard(seed, mines, 4096, null));
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+		int viewX = -VIEW_COLS / 2;
+		int viewY = -VIEW_ROWS / 2;
+		String line = "";
+		do {
+			StringTokenizer st = new StringTokenizer(line);
+			if (!st.hasMoreTokens()) {
+				// nothing to play
+			} else {
+				String command = st.nextToken();
+				if (command.equals("q"))
+					break;
+				try {
+					int x = Integer.parseInt(st.nextToken());
+					int y = Integer.parseInt(st.nextToken());
+					if (command.equals("o"))
+						game.open(x, y);
+					else if (command.equals("f"))
+						game.flag(x, y);
+					else if (command.equals("c"))
+						game.chord(x, y);
+					else if (command.equals("v")) {
+						viewX = x;
+						viewY = y;
+					}
+				} catch (RuntimeException e) {
+					System.out.println("Unknown move: " + line);
+				}
+			}
+			System.out.print(game.draw(viewX, viewY, VIEW_ROWS, VIEW_COLS));
+			System.out.println("Opened: " + game.getOpenedCells() + "  Flags: " + game.getFlags()
+					+ (game.hasLost() ? "  lost at " + game.getLostX() + " " + game.getLostY() : ""));
+			System.out.print("> ");
+			System.out.flush();
+		} while ((line = in.readLine()) != null);
+	}
+
+	/* Rules */
+
+	/**
+	 * Opens a cell. The first cell opened keeps itself and its neighbors free
+	 * of mines. If the cell has no neighboring mines, its neighbors are
+	 * opened as well, and if it is a mine, the game is lost.
+	 */
+	public void open(int x, int y) {
+		if (lost)
+			return;
+		if (!started) {
+			started = true;
+			board.setSafeCell(x, y);
+		}
+		openedByMove = 0;
+		rules.open(cell(x, y));
+	}
+
+	/**
+	 * Opens the unflagged neighbors of an opened cell, if it has as many
+	 * flagged neighbors as neighboring mines.
+	 */
+	public void chord(int x, int y) {
+		openedByMove = 0;
+		rules.chord(cell(x, y));
+	}
+
+	/**
+	 * Places or removes a flag on an unopened cell.
+	 */
+	public void flag(int x, int y) {
+		flags += rules.flag(cell(x, y));
+	}
+
+	private static long cell(int x, int y) {
+		return (long) x << 32 | (y & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Draws part of the board, one character per cell as in MinesweeperCLI.
+	 * Only the chunks in view are generated.
+	 * @param x the column of the top left cell
+	 * @param y the row of the top left cell
+	 * @param rows the number of rows to draw
+	 * @param cols the number of columns to draw
+	 */
+	public String draw(int x, int y, int rows, int cols) {
+		StringBuilder sb = new StringBuilder();
+		for (int row = y; row < y + rows; row++) {
+			for (int col = x; col < x + cols; col++)
+				sb.append(MinesweeperCLI.getGlyph(board.getState(col, row), lost));
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Starts a new game on the same world.
+	 */
+	public void clear() {
+		board.clear();
+		started = false;
+		lost = false;
+		openedCells = 0;
+		flags = 0;
+	}
+
+	/* Accessors */
+
+	public boolean hasStarted() {return this.started;}
+	public boolean hasLost() {return this.lost;}
+	public long getOpenedCells() {return this.openedCells;}
+	public long getFlags() {return this.flags;}
+	public int getLostX() {return this.lostX;}
+	public int getLostY() {return this.lostY;}
+	public EndlessBoard getBoard() {return this.board;}
+}
@@ -0,0 +1,347 @@
+/*
+ * GameEngine.java: Runs the rules of a Minesweeper game on a thread of its
+ * own, so that a front end never waits for them.
+ *
+ * The engine is the only thread that touches the game. Front ends submit
+ * moves to a bounded queue and read the result from a Snapshot, an immutable
+ * copy of everything that is visible. Whenever the queue has moves waiting,
+ * the engine plays all of them before publishing a single new Snapshot, so
+ * moves that arrive faster than frames are drawn are coalesced into one
+ * frame. After each Snapshot is published, the listener is called on the
+ * engine thread; a Swing front end typically schedules a repaint from it.
+ *
+ * Every move is recorded in a GameHistory, so undo and redo are moves too,
+ * unless the Board is kept off the heap, such as a MappedBoard, whose history
+ * would copy the whole board onto the heap.
+ *
+ * A Snapshot only copies the cells in the viewport set by setViewport. By
+ * default this is the whole board, or its top left corner for boards that
+ * are not on the heap.
+ * The cells changed by each move may also be published to a SpectatorStream.
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class GameEngine {
+
+	/* Kinds of moves */
+	public static final int OPEN = 0;
+	public static final int FLAG = 1;
+	public static final int CHORD = 2;
+	public static final int UNDO = 3;
+	public static final int REDO = 4;
+	public static final int NEW_GAME = 5;
+
+	private static final int UNDO_STEPS = 10000;
+	private static final long UNDO_BYTES = 64L << 20;
+
+	/* Rows and columns of the default viewport of a board not on the heap */
+	private static final int DEFAULT_VIEW = 256;
+
+	private final BlockingQueue<Move> input;
+	private final ArrayList<Move> batch = new ArrayList<Move>();
+	private final Runnable listener;
+	private final Thread thread;
+
+	/* Only used by the engine thread */
+	private Minesweeper game;
+	private GameHistory history;
+
+	private volatile Snapshot snapshot;
+	private volatile SpectatorStream spectators;
+
+	/* x, y, width and height of the viewport, or null for the default */
+	private volatile int[] viewport;
+	private long version = 0;
+
+	/* Number of games started through newGame, and the game being played */
+	private final AtomicInteger requestedGames = new AtomicInteger();
+	private int gameNumber = 0;
+
+	/* Constructor */
+
+	/**
+	 * Starts an engine for a game.
+	 * @param game the game to play; it must not be used by any other thread
+	 *            from now on
+	 * @param capacity the most moves that may wait to be played
+	 * @param listener called after each new Snapshot is published
+	 */
+	public GameEngine(Minesweeper game, int capacity, Runnable listener) {
+		this.input = new ArrayBlockingQueue<Move>(capacity);
+		this.listener = listener;
+		this.game = game;
+		this.history = newHistory(game);
+		this.snapshot = new Snapshot(game, null, version, gameNumber);
+
+		thread = new Thread(new Runnable() {
+			public void run() {
+				loop();
+			}
+		}, "Minesweeper engine");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/* Methods */
+
+	/**
+	 * Asks for a move to be played. This never blocks.
+	 * @param kind OPEN, FLAG, CHORD, UNDO or REDO
+	 * @param x x-index of the cell
+	 * @param y y-index of the cell
+	 * @return false if too many moves are waiting and the move was dropped
+	 */
+	public boolean submit(int kind, int x, int y) {
+		return input.offer(new Move(kind, x, y, null, 0));
+	}
+
+	/**
+	 * Clears a game and switches to it. Unlike other moves, this waits for
+	 * room in the queue rather than being dropped.
+	 * @param game the game to play; it must not be used by any other thread
+	 *            from now on
+	 * @return the number that Snapshots of the new game will carry
+	 */
+	public int newGame(Minesweeper game) {
+		int number = requestedGames.incrementAndGet();
+		Move move = new Move(NEW_GAME, 0, 0, game, number);
+		boolean interrupted = false;
+		while (true) {
+			try {
+				input.put(move);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		return number;
+	}
+
+	/**
+	 * Publishes every move from now on to a stream of spectators.
+	 * @param spectators the stream, or null to stop publishing
+	 */
+	public void setSpectators(SpectatorStream spectators) {
+		this.spectators = spectators;
+	}
+
+	/**
+	 * Chooses the cells that Snapshots copy, from the next Snapshot on. The
+	 * viewport is clipped to the board.
+	 * @param x the column of the top left cell
+	 * @param y the row of the top left cell
+	 * @param width the number of columns
+	 * @param height the number of rows
+	 */
+	public void setViewport(int x, int y, int width, int height) {
+		this.viewport = new int[] { x, y, width, height };
+	}
+
+	/**
+	 * @return the state of the game after the latest batch of moves
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Stops the engine thread. Moves that are still waiting are not played.
+	 */
+	public void shutdown() {
+		thread.interrupt();
+	}
+
+	private void loop() {
+		try {
+			while (true) {
+				batch.add(input.take());
+				input.drainTo(batch);
+				for (int i = 0; i < batch.size(); i++)
+					play(batch.get(i));
+				batch.clear();
+				snapshot = new Snapshot(game, viewport, ++version, gameNumber);
+				listener.run();
+			}
+		} catch (InterruptedException e) {
+			// shut down
+		}
+	}
+
+	private void play(Move move) {
+		// moves queued before the front end saw the end of the game are
+		// dropped here, since only this thread knows the game is over
+		if (move.kind <= CHORD && game.isOver())
+			return;
+		switch (move.kind) {
+		case OPEN:
+			game.open(move.x, move.y);
+			break;
+		case FLAG:
+			game.flag(move.x, move.y);
+			break;
+		case CHORD:
+			game.chord(move.x, move.y);
+			break;
+		case UNDO:
+			if (history != null)
+				history.undo();
+			break;
+		case REDO:
+			if (history != null)
+				history.redo();
+			break;
+		case NEW_GAME:
+			if (move.game != game) {
+				game = move.game;
+				history = newHistory(game);
+			}
+			game.clear();
+			if (history != null)
+				history.reset();
+			gameNumber = move.number;
+			break;
+		}
+		if (move.kind <= CHORD && history != null)
+			history.record();
+		SpectatorStream stream = spectators;
+		if (stream != null)
+			stream.publish(game, gameNumber);
+		game.clearChanges();
+	}
+
+	private static GameHistory newHistory(Minesweeper game) {
+		if (!game.getBoard().isOnHeap())
+			return null;
+		return new GameHistory(game, UNDO_STEPS, UNDO_BYTES);
+	}
+
+	private static class Move {
+		final int kind;
+		final int x;
+		final int y;
+		final Minesweeper game;
+		final int number;
+
+		Move(int kind, int x, int y, Minesweeper game, int number) {
+			this.kind = kind;
+			this.x = x;
+			this.y = y;
+			this.game = game;
+			this.number = number;
+		}
+	}
+
+	/**
+	 * An immutable copy of the visible state of a game at one moment. Only
+	 * the cells of the viewport are copied, a row at a time; cells outside
+	 * it read as 0.
+	 */
+	public static final class Snapshot {
+		private final int rows;
+		private final int cols;
+		private final int viewX;
+		private final int viewY;
+		private final int viewWidth;
+		private final int viewHeight;
+		private final byte[] cells;
+		private final boolean started;
+		private final boolean won;
+		private final boolean lost;
+		private final int minesRemaining;
+		private final int bbbv;
+		private final int lostCell;
+		private final long version;
+		private final int gameNumber;
+
+		Snapshot(Minesweeper game, int[] viewport, long version, int gameNumber) {
+			this.rows = game.getNumRows();
+			this.cols = game.getNumCols();
+			Board board = game.getBoard();
+			if (viewport == null)
+				viewport = board.isOnHeap() ? new int[] { 0, 0, cols, rows }
+						: new int[] { 0, 0, DEFAULT_VIEW, DEFAULT_VIEW };
+			this.viewX = Math.max(0, Math.min(viewport[0], cols));
+			this.viewY = Math.max(0, Math.min(viewport[1], rows));
+			this.viewWidth = Math.max(0, Math.min(viewport[2], cols - viewX));
+			this.viewHeight = Math.max(0, Math.min(viewport[3], rows - viewY));
+			this.cells = new byte[viewWidth * viewHeight];
+			for (int i = 0; i < viewHeight; i++)
+				board.copyCells((viewY + i) * cols + viewX, cells, i * viewWidth, viewWidth);
+			this.started = game.hasStarted();
+			this.won = game.hasWon();
+			this.lost = game.hasLost();
+			this.minesRemaining = game.getMinesRemaining();
+			// the 3BV scans the whole board, and is only needed at the end
+			this.bbbv = game.isOver() ? game.get3BV() : 0;
+			this.lostCell = game.getLostCell();
+			this.version = version;
+			this.gameNumber = gameNumber;
+		}
+
+		/**
+		 * @return the packed state of a cell, as in the Board class
+		 */
+		public int getState(int x, int y) {
+			x -= viewX;
+			y -= viewY;
+			if (x < 0 || x >= viewWidth || y < 0 || y >= viewHeight)
+				return 0;
+			return cells[y * viewWidth + x] & 0xFF;
+		}
+
+		public boolean isValid(int x, int y) {
+			return x > -1 && x < cols && y > -1 && y < rows;
+		}
+
+		public boolean isMine(int x, int y) {return (getState(x, y) & Board.MINE) != 0;}
+		public boolean isRevealed(int x, int y) {return (getState(x, y) & Board.REVEALED) != 0;}
+		public boolean isFlagged(int x, int y) {return (getState(x, y) & Board.FLAGGED) != 0;}
+
+		/**
+		 * @return the number of mines that the cell borders, or -1 if the
+		 *         cell is itself a mine
+		 */
+		public int getNeighbors(int x, int y) {
+			int state = getState(x, y);
+			return (state & Board.MINE) != 0 ? -1 : state & Board.COUNT_MASK;
+		}
+
+		public int getNumRows() {return rows;}
+		public int getNumCols() {return cols;}
+		public boolean hasStarted() {return started;}
+		public boolean hasWon() {return won;}
+		public boolean hasLost() {return lost;}
+		public boolean isOver() {return won || lost;}
+		public int getMinesRemaining() {return minesRemaining;}
+		public int getViewX() {return viewX;}
+		public int getViewY() {return viewY;}
+		public int getViewWidth() {return viewWidth;}
+		public int getViewHeight() {return viewHeight;}
+
+		/**
+		 * @return the 3BV of the board once the game is over, or 0
+		 */
+		public int get3BV() {return bbbv;}
+
+		/**
+		 * @return the index of the mine that lost the game, or -1
+		 */
+		public int getLostCell() {return lostCell;}
+
+		/**
+		 * @return a number that grows by one with every Snapshot published
+		 */
+		public long getVersion() {return version;}
+
+		/**
+		 * @return the number returned by the newGame call that started the
+		 *         game, or 0 for the game the engine was created with
+		 */
+		public int getGameNumber() {return gameNumber;}
+	}
+}
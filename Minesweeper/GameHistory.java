@@ -0,0 +1,305 @@
+/*
+ * GameHistory.java: Unlimited undo and redo of the moves of a Minesweeper
+ * game.
+ *
+ * Every version of the game is a persistent tree over the packed cells of
+ * the Board. The cells are split into chunks of CHUNK_SIZE bytes, which are
+ * the leaves of a tree with BRANCHING children per node. Recording a move
+ * copies only the chunks that the move changed, together with the nodes on
+ * their paths to the root; everything else is shared with the previous
+ * version. Undoing or redoing walks both versions at once, skipping every
+ * subtree they share, so the cost of a move, its undo and its redo are all
+ * proportional to the number of cells it changed rather than to the size of
+ * the Board.
+ *
+ * Old versions are evicted once there are more than maxSteps of them, or
+ * once the memory they hold on to exceeds maxBytes.
+ *
+ * A front end calls record after every move (before clearing the changes
+ * of the game) and reset whenever a new game starts.
+ */
+
+import java.util.*;
+
+public class GameHistory {
+
+	private static final int CHUNK_BITS = 6;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int BRANCH_BITS = 5;
+	private static final int BRANCHING = 1 << BRANCH_BITS;
+
+	/* Approximate cost, in bytes, of an array apart from its elements */
+	private static final int ARRAY_OVERHEAD = 16;
+
+	private final Minesweeper game;
+	private final int maxSteps;
+	private final long maxBytes;
+
+	private final int chunks;
+	private final int levels;
+
+	/* versions.get(current) is the version the game is in */
+	private final ArrayList<Version> versions = new ArrayList<Version>();
+	private int current;
+	private long bytes;
+
+	/* Scratch space for record */
+	private int[] dirty = new int[64];
+
+	/* Constructor */
+
+	/**
+	 * Creates the history of a game, starting from its present state.
+	 * @param game the game whose moves are recorded
+	 * @param maxSteps the most moves that can be undone
+	 * @param maxBytes the most memory, in bytes, that old versions may use
+	 */
+	public GameHistory(Minesweeper game, int maxSteps, long maxBytes) {
+		this.game = game;
+		this.maxSteps = maxSteps;
+		this.maxBytes = maxBytes;
+		this.chunks = (game.getSquares() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		int levels = 0;
+		for (long capacity = 1; capacity < chunks; capacity *= BRANCHING)
+			levels++;
+		this.levels = levels;
+		reset();
+	}
+
+	/* Methods */
+
+	/**
+	 * Forgets every version and starts again from the present state of the
+	 * game, for instance after a new game has started.
+	 */
+	public void reset() {
+		versions.clear();
+		long[] size = new long[1];
+		Object root = build(levels, 0, size);
+		versions.add(new Version(root, game, size[0]));
+		current = 0;
+		bytes = size[0];
+	}
+
+	/**
+	 * Records the move that the game has just made, using the cells that it
+	 * reports as changed. Moves that can still be redone are discarded.
+	 */
+	public void record() {
+		Version previous = versions.get(current);
+		int count;
+		if (!previous.started && game.hasStarted()) {
+			// the mines were just placed, which changes every chunk
+			count = chunks;
+			ensureDirty(count);
+			for (int i = 0; i < count; i++)
+				dirty[i] = i;
+		} else {
+			count = getDirtyChunks();
+			if (count == 0 && previous.matches(game))
+				return;
+		}
+
+		while (versions.size() > current + 1)
+			versions.remove(versions.size() - 1);
+		long[] size = new long[1];
+		Object root = update(previous.root, levels, 0, 0, count, size);
+		versions.add(new Version(root, game, size[0]));
+		current++;
+		bytes += size[0];
+		evict();
+	}
+
+	/**
+	 * Returns the game to the version before the last move.
+	 * @return false if there is nothing to undo
+	 */
+	public boolean undo() {
+		if (current == 0)
+			return false;
+		moveTo(current - 1);
+		return true;
+	}
+
+	/**
+	 * Plays the last undone move again.
+	 * @return false if there is nothing to redo
+	 */
+	public boolean redo() {
+		if (current == versions.size() - 1)
+			return false;
+		moveTo(current + 1);
+		return true;
+	}
+
+	private void moveTo(int target) {
+		Version from = versions.get(current);
+		Version to = versions.get(target);
+		restore(from.root, to.root, levels, 0);
+		game.restoreStatus(to.started, to.won, to.lost, to.openedCells, to.flags);
+		current = target;
+	}
+
+	/**
+	 * Drops the oldest versions while there are too many of them or they
+	 * use too much memory. The memory freed by dropping the oldest version
+	 * is about what the following version had to copy.
+	 */
+	private void evict() {
+		int evicted = 0;
+		while (current - evicted > 0 && (versions.size() - evicted > maxSteps + 1
+				|| bytes > maxBytes)) {
+			Version next = versions.get(evicted + 1);
+			bytes -= next.copiedBytes;
+			next.copiedBytes = 0;
+			evicted++;
+		}
+		if (evicted > 0) {
+			versions.subList(0, evicted).clear();
+			current -= evicted;
+		}
+	}
+
+	/**
+	 * Collects the sorted, distinct chunks of the cells changed by the game.
+	 * @return the number of chunks
+	 */
+	private int getDirtyChunks() {
+		int changes = game.getChangeCount();
+		int[] cells = game.getChanges();
+		ensureDirty(changes);
+		for (int i = 0; i < changes; i++)
+			dirty[i] = cells[i] >> CHUNK_BITS;
+		Arrays.sort(dirty, 0, changes);
+		int count = 0;
+		for (int i = 0; i < changes; i++)
+			if (count == 0 || dirty[count - 1] != dirty[i])
+				dirty[count++] = dirty[i];
+		return count;
+	}
+
+	private void ensureDirty(int length) {
+		if (dirty.length < length)
+			dirty = new int[Math.max(length, dirty.length * 2)];
+	}
+
+	/* Trees */
+
+	/**
+	 * Builds the subtree of the given level holding the chunks from first on.
+	 * Leaves are byte arrays, and other nodes are arrays of children.
+	 * @param size the bytes allocated are added to size[0]
+	 */
+	private Object build(int level, int first, long[] size) {
+		if (level == 0)
+			return copyChunk(first, size);
+		int span = 1 << (BRANCH_BITS * (level - 1));
+		int children = Math.min(BRANCHING, (chunks - first + span - 1) / span);
+		Object[] node = new Object[children];
+		for (int i = 0; i < children; i++)
+			node[i] = build(level - 1, first + i * span, size);
+		size[0] += ARRAY_OVERHEAD + 4L * children;
+		return node;
+	}
+
+	/**
+	 * Copies a subtree, replacing the chunks dirty[from] to dirty[to - 1],
+	 * which all lie in it, with the present cells of the game.
+	 * @param first the first chunk of the subtree
+	 */
+	private Object update(Object tree, int level, int first, int from, int to, long[] size) {
+		if (from == to)
+			return tree;
+		if (level == 0)
+			return copyChunk(first, size);
+		int span = 1 << (BRANCH_BITS * (level - 1));
+		Object[] node = ((Object[]) tree).clone();
+		size[0] += ARRAY_OVERHEAD + 4L * node.length;
+		int i = from;
+		while (i < to) {
+			int child = (dirty[i] - first) / span;
+			int end = i;
+			while (end < to && (dirty[end] - first) / span == child)
+				end++;
+			node[child] = update(node[child], level - 1, first + child * span, i, end, size);
+			i = end;
+		}
+		return node;
+	}
+
+	/**
+	 * Sets the cells of the game that differ between two versions to their
+	 * state in the target version.
+	 */
+	private void restore(Object from, Object to, int level, int first) {
+		if (from == to)
+			return;
+		if (level == 0) {
+			byte[] old = (byte[]) from;
+			byte[] chunk = (byte[]) to;
+			int start = first << CHUNK_BITS;
+			for (int i = 0; i < chunk.length; i++)
+				if (old[i] != chunk[i])
+					game.restoreCell(start + i, chunk[i] & 0xFF);
+			return;
+		}
+		int span = 1 << (BRANCH_BITS * (level - 1));
+		Object[] a = (Object[]) from;
+		Object[] b = (Object[]) to;
+		for (int i = 0; i < b.length; i++)
+			restore(a[i], b[i], level - 1, first + i * span);
+	}
+
+	private byte[] copyChunk(int chunk, long[] size) {
+		int start = chunk << CHUNK_BITS;
+		int length = Math.min(CHUNK_SIZE, game.getSquares() - start);
+		byte[] leaf = new byte[length];
+		game.getBoard().copyCells(start, leaf, 0, length);
+		size[0] += ARRAY_OVERHEAD + length;
+		return leaf;
+	}
+
+	/* Accessors */
+
+	public boolean canUndo() {return current > 0;}
+	public boolean canRedo() {return current < versions.size() - 1;}
+
+	/**
+	 * @return the number of moves that can be undone
+	 */
+	public int getUndoSteps() {return current;}
+
+	/**
+	 * @return the approximate memory, in bytes, held by the history
+	 */
+	public long getBytes() {return bytes;}
+
+	/**
+	 * One version of the game: its cells and its counters.
+	 */
+	private static class Version {
+		final Object root;
+		final boolean started;
+		final boolean won;
+		final boolean lost;
+		final int openedCells;
+		final int flags;
+		long copiedBytes;
+
+		Version(Object root, Minesweeper game, long copiedBytes) {
+			this.root = root;
+			this.started = game.hasStarted();
+			this.won = game.hasWon();
+			this.lost = game.hasLost();
+			this.openedCells = game.getOpenedCells();
+			this.flags = game.getFlags();
+			this.copiedBytes = copiedBytes;
+		}
+
+		boolean matches(Minesweeper game) {
+			return started == game.hasStarted() && won == game.hasWon()
+					&& lost == game.hasLost() && openedCells == game.getOpenedCells()
+					&& flags == game.getFlags();
+		}
+	}
+}
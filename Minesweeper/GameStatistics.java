@@ -0,0 +1,460 @@
+/*
+ * GameStatistics.java: Statistics over every game played, in a fixed amount
+ * of memory no matter how many games that is.
+ *
+ * Each finished game is added to the aggregate of its difficulty for the day
+ * it was played on, and to the all-time aggregate of its difficulty. Only the
+ * last WINDOW_DAYS days are kept, in a ring. An aggregate holds counters and
+ * fixed-size histograms of the duration, clicks and efficiency of its games,
+ * from which quantiles are read, and a Space-Saving sketch of the cells on
+ * which games were lost, from which the most frequent ones are read.
+ *
+ * The statistics are saved to a small binary file, next to the high scores.
+ * Histograms are written sparsely, so an aggregate of few games takes only a
+ * few bytes.
+ */
+
+import java.io.*;
+import java.util.*;
+
+public class GameStatistics {
+
+	public static final int DIFFICULTIES = 3;
+	public static final int WINDOW_DAYS = 30;
+
+	private static final int MAGIC = 0x4D535354; // "MSST"
+	private static final int VERSION = 1;
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	private final Aggregate[] allTime = new Aggregate[DIFFICULTIES];
+	private final Aggregate[][] days = new Aggregate[DIFFICULTIES][WINDOW_DAYS];
+
+	/* Held while writing a file, so that saves do not overlap */
+	private final Object saving = new Object();
+
+	/* Constructor */
+
+	public GameStatistics() {
+		for (int i = 0; i < DIFFICULTIES; i++) {
+			allTime[i] = new Aggregate();
+			for (int j = 0; j < WINDOW_DAYS; j++)
+				days[i][j] = new Aggregate();
+		}
+	}
+
+	/* Methods */
+
+	/**
+	 * Adds a finished game.
+	 * @param difficulty the difficulty of the game
+	 * @param endMillis when the game ended, as by System.currentTimeMillis
+	 * @param won whether the game was won
+	 * @param durationMillis how long the game took
+	 * @param clicks the number of moves made
+	 * @param flags the number of flag moves
+	 * @param chords the number of chord moves
+	 * @param bbbv the 3BV of the board
+	 * @param lostCell the index of the mine that lost the game, or -1
+	 */
+	public synchronized void record(int difficulty, long endMillis, boolean won,
+			long durationMillis, int clicks, int flags, int chords, int bbbv, int lostCell) {
+		long day = endMillis / MILLIS_PER_DAY;
+		Aggregate today = days[difficulty][(int) (day % WINDOW_DAYS)];
+		if (today.day < day)
+			today.reset(day);
+		// a game from before the window, as after the clock is turned back,
+		// only counts towards the all-time statistics
+		if (today.day == day)
+			today.add(won, durationMillis, clicks, flags, chords, bbbv, lostCell);
+		allTime[difficulty].add(won, durationMillis, clicks, flags, chords, bbbv, lostCell);
+	}
+
+	/**
+	 * @param difficulty the difficulty
+	 * @return a copy of the statistics of every game ever played at the difficulty
+	 */
+	public synchronized Aggregate getAllTime(int difficulty) {
+		Aggregate copy = new Aggregate();
+		copy.merge(allTime[difficulty]);
+		return copy;
+	}
+
+	/**
+	 * @param difficulty the difficulty
+	 * @param nowMillis the present time, as by System.currentTimeMillis
+	 * @param lastDays the number of days, including today, at most WINDOW_DAYS
+	 * @return the combined statistics of the games played in those days
+	 */
+	public synchronized Aggregate getRecent(int difficulty, long nowMillis, int lastDays) {
+		long today = nowMillis / MILLIS_PER_DAY;
+		Aggregate total = new Aggregate();
+		for (Aggregate aggregate : days[difficulty])
+			if (aggregate.day > today - Math.min(lastDays, WINDOW_DAYS) && aggregate.day <= today)
+				total.merge(aggregate);
+		return total;
+	}
+
+	/**
+	 * Adds every game of other statistics to these, as when statistics are
+	 * loaded after some games have already been recorded. Days of other that
+	 * are older than the days these keep in their place are left out, as
+	 * they are by record.
+	 * @param other the statistics to add, which must not change meanwhile
+	 */
+	public synchronized void merge(GameStatistics other) {
+		for (int i = 0; i < DIFFICULTIES; i++) {
+			allTime[i].merge(other.allTime[i]);
+			for (int j = 0; j < WINDOW_DAYS; j++) {
+				Aggregate day = days[i][j];
+				Aggregate otherDay = other.days[i][j];
+				if (otherDay.day < 0)
+					continue;
+				if (day.day < otherDay.day)
+					day.reset(otherDay.day);
+				if (day.day == otherDay.day)
+					day.merge(otherDay);
+			}
+		}
+	}
+
+	/**
+	 * Writes the statistics to a file, replacing it. The statistics are
+	 * copied while they are locked, and the copy is written after, so games
+	 * can be recorded while the file is written.
+	 * @param file the file to write
+	 */
+	public void save(File file) throws IOException {
+		GameStatistics copy = new GameStatistics();
+		synchronized (this) {
+			for (int i = 0; i < DIFFICULTIES; i++) {
+				copy.allTime[i].copy(allTime[i]);
+				for (int j = 0; j < WINDOW_DAYS; j++)
+					copy.days[i][j].copy(days[i][j]);
+			}
+		}
+		synchronized (saving) {
+			copy.write(file);
+		}
+	}
+
+	private void write(File file) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			for (int i = 0; i < DIFFICULTIES; i++) {
+				allTime[i].write(out);
+				for (int j = 0; j < WINDOW_DAYS; j++)
+					days[i][j].write(out);
+			}
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(file)) {
+			file.delete();
+			if (!temp.renameTo(file))
+				throw new IOException("Could not replace " + file);
+		}
+	}
+
+	/**
+	 * Reads statistics written by save.
+	 * @param file the file to read
+	 * @return the statistics, or empty statistics if the file does not exist
+	 */
+	public static GameStatistics load(File file) throws IOException {
+		GameStatistics statistics = new GameStatistics();
+		if (!file.exists())
+			return statistics;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException(file + " does not hold game statistics");
+			for (int i = 0; i < DIFFICULTIES; i++) {
+				statistics.allTime[i].read(in);
+				for (int j = 0; j < WINDOW_DAYS; j++)
+					statistics.days[i][j].read(in);
+			}
+		} finally {
+			in.close();
+		}
+		return statistics;
+	}
+
+	/**
+	 * The statistics of a group of games.
+	 */
+	public static class Aggregate {
+		/* durations in milliseconds, and clicks, in log-linear buckets */
+		private static final int SUB_BUCKETS = 8;
+		private static final int BUCKETS = 40 * SUB_BUCKETS;
+		/* efficiency (3BV / clicks) in percent, capped at 400% */
+		private static final int MAX_EFFICIENCY = 400;
+		/* cells tracked by the heavy hitters sketch */
+		private static final int HITTERS = 32;
+
+		private long day = -1;
+		private long games = 0;
+		private long wins = 0;
+		private long clicks = 0;
+		private long flags = 0;
+		private long chords = 0;
+		private final long[] durations = new long[BUCKETS];
+		private final long[] clickCounts = new long[BUCKETS];
+		private final long[] efficiencies = new long[MAX_EFFICIENCY + 1];
+
+		/* Space-Saving sketch: cell, estimated count and maximum overestimate */
+		private final int[] hitterCells = new int[HITTERS];
+		private final long[] hitterCounts = new long[HITTERS];
+		private final long[] hitterErrors = new long[HITTERS];
+		private int hitters = 0;
+
+		private void reset(long day) {
+			this.day = day;
+			games = wins = clicks = flags = chords = 0;
+			Arrays.fill(durations, 0);
+			Arrays.fill(clickCounts, 0);
+			Arrays.fill(efficiencies, 0);
+			hitters = 0;
+		}
+
+		private void add(boolean won, long durationMillis, int clicks, int flags,
+				int chords, int bbbv, int lostCell) {
+			games++;
+			if (won) {
+				wins++;
+				// efficiency is only meaningful for boards that were cleared
+				int efficiency = clicks == 0 ? 0 : (int) (100L * bbbv / clicks);
+				efficiencies[Math.min(efficiency, MAX_EFFICIENCY)]++;
+			}
+			this.clicks += clicks;
+			this.flags += flags;
+			this.chords += chords;
+			durations[bucket(durationMillis)]++;
+			clickCounts[bucket(clicks)]++;
+			if (lostCell >= 0)
+				addHitter(lostCell, 1, 0);
+		}
+
+		/**
+		 * Makes this empty aggregate a copy of another.
+		 */
+		private void copy(Aggregate other) {
+			day = other.day;
+			merge(other);
+		}
+
+		private void merge(Aggregate other) {
+			games += other.games;
+			wins += other.wins;
+			clicks += other.clicks;
+			flags += other.flags;
+			chords += other.chords;
+			for (int i = 0; i < BUCKETS; i++) {
+				durations[i] += other.durations[i];
+				clickCounts[i] += other.clickCounts[i];
+			}
+			for (int i = 0; i <= MAX_EFFICIENCY; i++)
+				efficiencies[i] += other.efficiencies[i];
+			for (int i = 0; i < other.hitters; i++)
+				addHitter(other.hitterCells[i], other.hitterCounts[i], other.hitterErrors[i]);
+		}
+
+		/**
+		 * Counts a cell in the sketch. When the sketch is full, the cell with
+		 * the smallest count is replaced, and its count becomes the error of
+		 * the new cell.
+		 */
+		private void addHitter(int cell, long count, long error) {
+			int smallest = 0;
+			for (int i = 0; i < hitters; i++) {
+				if (hitterCells[i] == cell) {
+					hitterCounts[i] += count;
+					hitterErrors[i] += error;
+					return;
+				}
+				if (hitterCounts[i] < hitterCounts[smallest])
+					smallest = i;
+			}
+			if (hitters < HITTERS) {
+				hitterCells[hitters] = cell;
+				hitterCounts[hitters] = count;
+				hitterErrors[hitters] = error;
+				hitters++;
+			} else {
+				long floor = hitterCounts[smallest];
+				hitterCells[smallest] = cell;
+				hitterCounts[smallest] = floor + count;
+				hitterErrors[smallest] = floor + error;
+			}
+		}
+
+		/**
+		 * @return the bucket of a value: exact below SUB_BUCKETS, and then
+		 *         SUB_BUCKETS buckets for every power of two
+		 */
+		private static int bucket(long value) {
+			if (value < SUB_BUCKETS)
+				return (int) Math.max(value, 0);
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int shift = exponent - 3;
+			int index = (shift + 1) * SUB_BUCKETS + (int) ((value >> shift) - SUB_BUCKETS);
+			return Math.min(index, BUCKETS - 1);
+		}
+
+		/**
+		 * @return the largest value that falls in a bucket
+		 */
+		private static long bucketLimit(int bucket) {
+			if (bucket < SUB_BUCKETS)
+				return bucket;
+			int shift = bucket / SUB_BUCKETS - 1;
+			return ((long) (bucket % SUB_BUCKETS + SUB_BUCKETS + 1) << shift) - 1;
+		}
+
+		private static long quantile(long[] histogram, double fraction, boolean logLinear) {
+			long total = 0;
+			for (long count : histogram)
+				total += count;
+			if (total == 0)
+				return 0;
+			long target = Math.max(1, (long) Math.ceil(fraction * total));
+			long seen = 0;
+			for (int i = 0; i < histogram.length; i++) {
+				seen += histogram[i];
+				if (seen >= target)
+					return logLinear ? bucketLimit(i) : i;
+			}
+			return 0;
+		}
+
+		public long getGames() {return games;}
+		public long getWins() {return wins;}
+		public double getWinRate() {return games == 0 ? 0 : (double) wins / games;}
+		public long getClicks() {return clicks;}
+		public long getFlags() {return flags;}
+		public long getChords() {return chords;}
+
+		/**
+		 * @param fraction between 0 and 1
+		 * @return the duration in milliseconds that the fraction of games
+		 *         took at most, within 1/8 of the true value
+		 */
+		public long getDurationQuantile(double fraction) {
+			return quantile(durations, fraction, true);
+		}
+
+		/**
+		 * @param fraction between 0 and 1
+		 * @return the number of clicks that the fraction of games took at most
+		 */
+		public long getClickQuantile(double fraction) {
+			return quantile(clickCounts, fraction, true);
+		}
+
+		/**
+		 * @param fraction between 0 and 1
+		 * @return the efficiency, in percent, that the fraction of won games
+		 *         reached at most
+		 */
+		public long getEfficiencyQuantile(double fraction) {
+			return quantile(efficiencies, fraction, false);
+		}
+
+		/**
+		 * @param n the most cells to return
+		 * @return the cells on which the most games were lost, most frequent
+		 *         first. Counts are estimates that may be too high.
+		 */
+		public int[] getTopLossCells(int n) {
+			Integer[] order = new Integer[hitters];
+			for (int i = 0; i < hitters; i++)
+				order[i] = i;
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return Long.compare(hitterCounts[b], hitterCounts[a]);
+				}
+			});
+			int[] cells = new int[Math.min(n, hitters)];
+			for (int i = 0; i < cells.length; i++)
+				cells[i] = hitterCells[order[i]];
+			return cells;
+		}
+
+		/**
+		 * @param cell the index of a cell
+		 * @return the estimated number of games lost on the cell
+		 */
+		public long getLossCount(int cell) {
+			for (int i = 0; i < hitters; i++)
+				if (hitterCells[i] == cell)
+					return hitterCounts[i];
+			return 0;
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			out.writeLong(day);
+			out.writeLong(games);
+			if (games == 0)
+				return;
+			out.writeLong(wins);
+			out.writeLong(clicks);
+			out.writeLong(flags);
+			out.writeLong(chords);
+			writeSparse(out, durations);
+			writeSparse(out, clickCounts);
+			writeSparse(out, efficiencies);
+			out.writeByte(hitters);
+			for (int i = 0; i < hitters; i++) {
+				out.writeInt(hitterCells[i]);
+				out.writeLong(hitterCounts[i]);
+				out.writeLong(hitterErrors[i]);
+			}
+		}
+
+		private void read(DataInputStream in) throws IOException {
+			reset(in.readLong());
+			games = in.readLong();
+			if (games == 0)
+				return;
+			wins = in.readLong();
+			clicks = in.readLong();
+			flags = in.readLong();
+			chords = in.readLong();
+			readSparse(in, durations);
+			readSparse(in, clickCounts);
+			readSparse(in, efficiencies);
+			hitters = Math.min(in.readByte(), HITTERS);
+			for (int i = 0; i < hitters; i++) {
+				hitterCells[i] = in.readInt();
+				hitterCounts[i] = in.readLong();
+				hitterErrors[i] = in.readLong();
+			}
+		}
+
+		private static void writeSparse(DataOutputStream out, long[] histogram) throws IOException {
+			int used = 0;
+			for (long count : histogram)
+				if (count != 0)
+					used++;
+			out.writeShort(used);
+			for (int i = 0; i < histogram.length; i++) {
+				if (histogram[i] != 0) {
+					out.writeShort(i);
+					out.writeLong(histogram[i]);
+				}
+			}
+		}
+
+		private static void readSparse(DataInputStream in, long[] histogram) throws IOException {
+			int used = in.readUnsignedShort();
+			for (int i = 0; i < used; i++) {
+				int bucket = in.readUnsignedShort();
+				long count = in.readLong();
+				if (bucket < histogram.length)
+					histogram[bucket] = count;
+			}
+		}
+	}
+}
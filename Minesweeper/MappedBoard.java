@@ -0,0 +1,234 @@
+/*
+ * MappedBoard.java: A Board whose cells are kept in a memory-mapped file
+ * rather than on the heap, so that boards of a billion cells or more can be
+ * played with a small heap and without long pauses for garbage collection.
+ *
+ * Each cell still takes one byte, packed as in the Board class. The cells
+ * are stored in square tiles of TILE_SIZE by TILE_SIZE cells, each of which
+ * fills exactly one page of the file, so the cells around any cell (which a
+ * flood fill or a view of the board reads together) are in at most four
+ * pages. Tiles are numbered row by row, after a first page that holds the
+ * header:
+ *
+ *   header   magic, version, rows, cols (four big-endian ints)
+ *   tiles    TILE_SIZE * TILE_SIZE bytes each, the cells of each tile row
+ *            by row; cells beyond the edges of the board are unused
+ *
+ * The file is mapped in segments of at most 1 GB, a whole number of tiles
+ * each, since a single MappedByteBuffer cannot be larger than 2 GB. The
+ * operating system reads pages in as they are touched and writes them back
+ * as it sees fit; force writes everything back at once.
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+public class MappedBoard extends Board {
+
+	private static final int MAGIC = 0x4D534D42; // "MSMB"
+	private static final int VERSION = 1;
+
+	private static final int TILE_BITS = 6;
+	public static final int TILE_SIZE = 1 << TILE_BITS;
+	private static final int TILE_MASK = TILE_SIZE - 1;
+	private static final int PAGE_BITS = 2 * TILE_BITS;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+	private final int rows;
+	private final int cols;
+	private final int tileCols;
+	private final File file;
+	private final long size;
+	private final MappedByteBuffer[] segments;
+
+	/* Constructors */
+
+	private MappedBoard(Topology topology, File file, boolean create) throws IOException {
+		super(topology, null);
+		this.rows = topology.getNumRows();
+		this.cols = topology.getNumCols();
+		this.tileCols = (cols + TILE_MASK) >> TILE_BITS;
+		long tiles = (long) tileCols * ((rows + TILE_MASK) >> TILE_BITS);
+		this.size = PAGE_SIZE + (tiles << PAGE_BITS);
+		this.file = file;
+		if (create)
+			truncate();
+		this.segments = map();
+
+		ByteBuffer header = segments[0];
+		if (create) {
+			header.putInt(0, MAGIC);
+			header.putInt(4, VERSION);
+			header.putInt(8, rows);
+			header.putInt(12, cols);
+		} else if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+				|| header.getInt(8) != rows || header.getInt(12) != cols) {
+			throw new IOException(file + " does not hold a board of this size");
+		}
+	}
+
+	/**
+	 * Cuts the file back to its header and extends it again to its full size.
+	 * A file that is only extended reads as zeros, and takes no space on disk
+	 * until it is written to. Mappings of the file stay valid, and read the
+	 * cells as zeros too.
+	 */
+	private void truncate() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(PAGE_SIZE);
+			raf.setLength(size);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Maps the whole file, which must have the right size.
+	 */
+	private MappedByteBuffer[] map() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if (raf.length() != size)
+				throw new IOException(file + " does not hold a board of this size");
+			FileChannel channel = raf.getChannel();
+			int count = (int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS);
+			MappedByteBuffer[] mapped = new MappedByteBuffer[count];
+			for (int i = 0; i < count; i++) {
+				long start = (long) i << SEGMENT_BITS;
+				mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE, start,
+						Math.min(size - start, 1L << SEGMENT_BITS));
+			}
+			return mapped;
+		} finally {
+			// the mapping stays valid after the file is closed
+			raf.close();
+		}
+	}
+
+	/* Factories */
+
+	/**
+	 * Creates an empty Board in a file, replacing anything the file held.
+	 * @param topology The shape of the Board and the neighbors of each cell
+	 * @param file The file to keep the cells in
+	 */
+	public static MappedBoard create(Topology topology, File file) throws IOException {
+		return new MappedBoard(topology, file, true);
+	}
+
+	/**
+	 * Maps a Board that was created in a file before, with its cells as they
+	 * were left.
+	 * @param topology The shape of the Board, which must match the file
+	 * @param file The file that holds the cells
+	 */
+	public static MappedBoard open(Topology topology, File file) throws IOException {
+		return new MappedBoard(topology, file, false);
+	}
+
+	/* Methods */
+
+	/**
+	 * @return The position in the file of the cell at a row and column
+	 */
+	private long position(int row, int col) {
+		long tile = (long) (row >> TILE_BITS) * tileCols + (col >> TILE_BITS);
+		return PAGE_SIZE + (tile << PAGE_BITS) + ((row & TILE_MASK) << TILE_BITS) + (col & TILE_MASK);
+	}
+
+	private long position(int index) {
+		int row = index / cols;
+		return position(row, index - row * cols);
+	}
+
+	@Override
+	public int getState(int index) {
+		long position = position(index);
+		return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK)) & 0xFF;
+	}
+
+	@Override
+	public void setState(int index, int state) {
+		long position = position(index);
+		segments[(int) (position >>> SEGMENT_BITS)].put((int) (position & SEGMENT_MASK), (byte) state);
+	}
+
+	/**
+	 * Clears every cell by cutting the file back to its header and extending
+	 * it again, which frees its pages rather than writing zeros to each. The
+	 * file stays mapped as it was, so no new mappings are made. Where a
+	 * mapped file cannot be truncated, as on Windows, the cells are written
+	 * over with zeros instead.
+	 */
+	@Override
+	public void clear() {
+		try {
+			truncate();
+			return;
+		} catch (IOException e) {
+			// fall back to writing zeros
+		}
+		byte[] zeros = new byte[PAGE_SIZE];
+		for (int i = 0; i < segments.length; i++) {
+			ByteBuffer segment = segments[i].duplicate();
+			// the first page of the file is the header
+			segment.position(i == 0 ? PAGE_SIZE : 0);
+			while (segment.hasRemaining())
+				segment.put(zeros, 0, Math.min(zeros.length, segment.remaining()));
+		}
+	}
+
+	@Override
+	public byte[] copyCells() {
+		byte[] copy = new byte[rows * cols];
+		copyCells(0, copy, 0, copy.length);
+		return copy;
+	}
+
+	@Override
+	public void loadCells(byte[] source) {
+		int index = 0;
+		for (int row = 0; row < rows; row++)
+			for (int col = 0; col < cols; col++)
+				setState(index, source[index++]);
+	}
+
+	/**
+	 * Copies the packed states of a range of cells into an array, a run of
+	 * cells of one row of one tile at a time. A view of the board copies
+	 * each of its rows this way.
+	 */
+	@Override
+	public void copyCells(int from, byte[] dest, int offset, int length) {
+		int row = from / cols;
+		int col = from - row * cols;
+		int end = offset + length;
+		while (offset < end) {
+			int run = Math.min(end - offset, Math.min(cols - col, TILE_SIZE - (col & TILE_MASK)));
+			long position = position(row, col);
+			ByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)];
+			int start = (int) (position & SEGMENT_MASK);
+			for (int i = 0; i < run; i++)
+				dest[offset + i] = segment.get(start + i);
+			offset += run;
+			col += run;
+			if (col == cols) {
+				col = 0;
+				row++;
+			}
+		}
+	}
+
+	/**
+	 * Writes every change to the cells back to the file.
+	 */
+	public void force() {
+		for (MappedByteBuffer segment : segments)
+			segment.force();
+	}
+}
@@ -14,6 +14,7 @@
  */
 
 import java.util.*;
+import java.util.concurrent.*;
 
 public class Minesweeper {
 
@@ -22,7 +23,97 @@ public class Minesweeper {
 	private int cols;
 	private final int squares;
 	private int mines;
-	private final int[][] neighbors;
+	private final int[] adjacent = new int[Topology.MAX_DEGREE];
+	private long seed;
+	private boolean seeded = false;
+	private BoardCache cache;
+	private ForkJoinPool pool;
+
+	/* State of the current game */
+	private boolean started = false;
+	private boolean won = false;
+	private boolean lost = false;
+	private int openedCells = 0;
+	private int flags = 0;
+	private int lostCell = -1;
+
+	/* The 3BV of the Board, or -1 if it has not been computed */
+	private int bbbv = -1;
+
+	/* Cells waiting to be visited by the flood fill of get3BV */
+	private int[] pending = new int[64];
+
+	/**
+	 * The moves, which act on the Board through this game. The first move
+	 * places the mines; after that, the rules only ask the game whether it is
+	 * over, and count each cell they open.
+	 */
+	private final Rules rules = new Rules(new Rules.Field() {
+		public int getState(long cell) {
+			return board.getState((int) cell);
+		}
+
+		public void setState(long cell, int state) {
+			board.setState((int) cell, state);
+		}
+
+		public int getNeighbors(long cell, long[] dest) {
+			Topology topology = board.getTopology();
+			int[] offsets = topology.getOffsets();
+			if (offsets == null) {
+				int count = topology.getNeighbors((int) cell, adjacent);
+				for (int i = 0; i < count; i++)
+					dest[i] = adjacent[i];
+				return count;
+			}
+			int[] indices = topology.getIndices();
+			int start = offsets[(int) cell];
+			int count = offsets[(int) cell + 1] - start;
+			for (int i = 0; i < count; i++)
+				dest[i] = indices[start + i];
+			return count;
+		}
+
+		public boolean isOver() {
+			return Minesweeper.this.isOver();
+		}
+
+		public boolean opened(long cell, int state) {
+			int index = (int) cell;
+			addChange(index);
+			if ((state & Board.MINE) != 0) {
+				lost = true;
+				lostCell = index;
+				return false;
+			}
+			openedCells++;
+			if (openedCells == squares - mines) {
+				winGame();
+				return false;
+			}
+			return true;
+		}
+	}, Topology.MAX_DEGREE);
+
+	/**
+	 * Indices of the cells whose state has changed since the last call to
+	 * clearChanges, so that front ends only need to redraw those cells.
+	 */
+	private int[] changes = new int[64];
+	private int changeCount = 0;
+
+	/**
+	 * For a Board off the heap, the list of changes stops growing at
+	 * MAX_CHANGES cells, after which every cell counts as changed, so that a
+	 * move that opens most of a huge board does not list it on the heap.
+	 */
+	private static final int MAX_CHANGES = 1 << 16;
+	private boolean changedAll = false;
+
+	/**
+	 * Supplies the seeds of games that are not given one explicitly.
+	 */
+	private static final Random seeds = new Random();
 
 	/**
 	 * Creates a Minesweeper object that holds data related to the state of the
@@ -36,12 +127,36 @@ public class Minesweeper {
 	 *            number of mines to play the game with
 	 */
 	public Minesweeper(int row, int col, int mines) {
-		this.rows = row;
-		this.cols = col;
+		this(Topology.rectangular(row, col), mines);
+	}
+
+	/**
+	 * Creates a Minesweeper object played on a board of any shape.
+	 * 
+	 * @param topology
+	 *            the shape of the Board and the neighbors of each cell
+	 * @param mines
+	 *            number of mines to play the game with
+	 */
+	public Minesweeper(Topology topology, int mines) {
+		this(new Board(topology), mines);
+	}
+
+	/**
+	 * Creates a Minesweeper object played on an existing, empty Board, such
+	 * as a MappedBoard for boards larger than the heap.
+	 * 
+	 * @param board
+	 *            the Board to play on
+	 * @param mines
+	 *            number of mines to play the game with
+	 */
+	public Minesweeper(Board board, int mines) {
+		this.rows = board.getNumRows();
+		this.cols = board.getNumCols();
 		this.squares = rows * cols;
-		this.mines = Math.min(mines, (rows - 1) * (cols - 1));
-		this.board = new Board(rows, cols);
-		this.neighbors = new int[rows][cols];
+		this.mines = (int) Math.min(mines, (long) (rows - 1) * (cols - 1));
+		this.board = board;
 	}
 
 	/**
@@ -65,14 +180,11 @@ public class Minesweeper {
 	 * @return the total number of mines that a cell borders
 	 */
 	public int getOccupiedNeighbors(int row, int col) {
+		int count = board.getTopology().getNeighbors(board.indexOf(row, col), adjacent);
 		int neighbors = 0;
-		for (int i = row - 1; i < row + 2; i++)
-			for (int j = col - 1; j < col + 2; j++)
-				if (board.isValidCell(i, j))
-					if (board.getCell(i, j))
-						neighbors++;
-		if (board.getCell(row, col))
-			neighbors--;
+		for (int i = 0; i < count; i++)
+			if (board.isMine(adjacent[i]))
+				neighbors++;
 		return neighbors;
 	}
 
@@ -90,10 +202,232 @@ public class Minesweeper {
 
 	/*
 	 * Parameters: None Returns: Void Description: Sets all of the cells in the
-	 * Board to 0 (i.e. all cells are dead), and resets the generation to 0.
+	 * Board to 0, removing every mine, count, flag and opened cell.
 	 */
 	public void clear() {
 		this.board.clear();
+		started = false;
+		won = false;
+		lost = false;
+		openedCells = 0;
+		flags = 0;
+		lostCell = -1;
+		bbbv = -1;
+		changeCount = 0;
+	}
+
+	/* Rules */
+
+	/**
+	 * Opens the specified cell. The first cell opened in a game places the
+	 * mines. If the cell that is opened has no neighboring mines, all
+	 * neighboring cells are opened as well. If the cell is a mine, the game is
+	 * lost, and once every other cell is open, the game is won and all of the
+	 * mines are flagged.
+	 * 
+	 * @param x
+	 *            x-index of the cell to be opened
+	 * @param y
+	 *            y-index of the cell to be opened
+	 */
+	public void open(int x, int y) {
+		if (!isValid(x, y) || isOver())
+			return;
+		if (!started) {
+			setBoard(x, y);
+			started = true;
+		}
+		rules.open(board.indexOf(y, x));
+	}
+
+	/**
+	 * Opens an opened cell and its neighbors if the cell borders exactly as
+	 * many flags as mines.
+	 * 
+	 * @param x
+	 *            x-index of the cell
+	 * @param y
+	 *            y-index of the cell
+	 */
+	public void chord(int x, int y) {
+		if (isValid(x, y))
+			rules.chord(board.indexOf(y, x));
+	}
+
+	/**
+	 * Places or removes a flag on an unopened cell.
+	 * 
+	 * @param x
+	 *            x-index of the cell
+	 * @param y
+	 *            y-index of the cell
+	 */
+	public void flag(int x, int y) {
+		if (!isValid(x, y))
+			return;
+		int index = board.indexOf(y, x);
+		int change = rules.flag(index);
+		if (change != 0) {
+			flags += change;
+			addChange(index);
+		}
+	}
+
+	/**
+	 * Makes room in pending for one more cell. Most openings stay small, so
+	 * pending only grows as large as the largest one.
+	 */
+	private void ensurePending(int top) {
+		if (top == pending.length)
+			pending = Arrays.copyOf(pending, 2 * top);
+	}
+
+	private void winGame() {
+		won = true;
+		for (int i = 0; i < squares; i++) {
+			if (board.isMine(i) && !board.isFlagged(i)) {
+				board.setFlag(i, Board.FLAGGED, true);
+				addChange(i);
+			}
+		}
+		flags = mines;
+	}
+
+	/**
+	 * Computes the 3BV of the Board: the smallest number of clicks that
+	 * clears it without chords or flags. Every opening (a connected region of
+	 * cells with no neighboring mines, together with its border) takes one
+	 * click, and every other safe cell takes one click of its own.
+	 * 
+	 * The cells already counted are kept in a BitSet of one bit per cell, so
+	 * the 3BV of a Board off the heap, which may have billions of cells, is
+	 * not computed.
+	 * 
+	 * @return the 3BV, or 0 if the mines have not been placed or the Board is
+	 *         off the heap
+	 */
+	public int get3BV() {
+		if (!started || !board.isOnHeap())
+			return 0;
+		if (bbbv >= 0)
+			return bbbv;
+		BitSet seen = new BitSet(squares);
+		Topology topology = getTopology();
+		int total = 0;
+		for (int start = 0; start < squares; start++) {
+			if (seen.get(start) || board.isMine(start) || board.getCount(start) != 0)
+				continue;
+			total++;
+			int top = 0;
+			pending[top++] = start;
+			seen.set(start);
+			while (top > 0) {
+				int cell = pending[--top];
+				int count = topology.getNeighbors(cell, adjacent);
+				for (int i = 0; i < count; i++) {
+					int next = adjacent[i];
+					if (!seen.get(next)) {
+						seen.set(next);
+						if (board.getCount(next) == 0) {
+							ensurePending(top);
+							pending[top++] = next;
+						}
+					}
+				}
+			}
+		}
+		for (int i = 0; i < squares; i++)
+			if (!seen.get(i) && !board.isMine(i))
+				total++;
+		bbbv = total;
+		return total;
+	}
+
+	/**
+	 * 
+	 * @return the index of the mine that lost the game, or -1
+	 */
+	public int getLostCell() {
+		return lost ? lostCell : -1;
+	}
+
+	/**
+	 * Sets the packed state of a cell, recording a change if it differs. Used
+	 * to return the Board to an earlier state.
+	 * 
+	 * @param index
+	 *            index of the cell
+	 * @param state
+	 *            the packed state, as in the Board class
+	 */
+	void restoreCell(int index, int state) {
+		if (board.getState(index) != state) {
+			board.setState(index, state);
+			addChange(index);
+		}
+	}
+
+	/**
+	 * Returns the game to an earlier point, together with restoreCell.
+	 */
+	void restoreStatus(boolean started, boolean won, boolean lost, int openedCells, int flags) {
+		this.started = started;
+		this.won = won;
+		this.lost = lost;
+		this.openedCells = openedCells;
+		this.flags = flags;
+	}
+
+	int getFlags() {
+		return this.flags;
+	}
+
+	private void addChange(int index) {
+		if (changedAll)
+			return;
+		if (changeCount == MAX_CHANGES && !board.isOnHeap()) {
+			changedAll = true;
+			changeCount = 0;
+			return;
+		}
+		if (changeCount == changes.length)
+			changes = Arrays.copyOf(changes, changeCount * 2);
+		changes[changeCount++] = index;
+	}
+
+	/**
+	 * 
+	 * @return the number of cells changed since the last call to
+	 *         clearChanges, or 0 if hasChangedAll
+	 */
+	public int getChangeCount() {
+		return this.changeCount;
+	}
+
+	/**
+	 * 
+	 * @return the indices of the changed cells; only the first getChangeCount
+	 *         elements are meaningful
+	 */
+	public int[] getChanges() {
+		return this.changes;
+	}
+
+	/**
+	 * @return whether more cells changed since the last call to clearChanges
+	 *         than are listed for a Board off the heap, in which case every
+	 *         cell should be taken as changed
+	 */
+	public boolean hasChangedAll() {
+		return this.changedAll;
+	}
+
+	/**
+	 * Forgets the cells that have changed so far.
+	 */
+	public void clearChanges() {
+		this.changeCount = 0;
+		this.changedAll = false;
 	}
 
 	/**
@@ -106,20 +440,93 @@ public class Minesweeper {
 	 *            the y-index of the cell
 	 */
 	public void setBoard(int x, int y) {
+		long next = seed;
+		if (!seeded) {
+			synchronized (seeds) {
+				next = seeds.nextLong();
+			}
+		}
+		seeded = false;
+		setBoard(x, y, next);
+	}
+
+	/**
+	 * Chooses the seed of the next Board that is placed by setBoard(x, y),
+	 * for instance when the first cell of a game is opened.
+	 * 
+	 * @param seed
+	 *            the seed of the random placement of the mines
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+		this.seeded = true;
+	}
+
+	/**
+	 * Chooses the threads that generate Boards of at least
+	 * StripeGenerator.MIN_CELLS cells. The common ForkJoinPool is used by
+	 * default. The Boards generated do not depend on the number of threads.
+	 * 
+	 * @param pool
+	 *            the threads to generate large Boards on
+	 */
+	public void setGenerationPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Fills the Board with mines such that the cell that is described by the
+	 * parameters is guaranteed to not be a mine. The same seed and first cell
+	 * always produce the same Board, so a Board found in the cache is used
+	 * instead of generating it again.
+	 * 
+	 * @param x
+	 *            the x-index of the cell
+	 * @param y
+	 *            the y-index of the cell
+	 * @param seed
+	 *            the seed of the random placement of the mines
+	 */
+	public void setBoard(int x, int y, long seed) {
 		int index = y * cols + x;
-		setBoard(getMineLocs(index));
-		initializeNeighbors();
+		this.seed = seed;
+		this.bbbv = -1;
+		BoardCache.Key key = null;
+		// a board off the heap is too large to copy into the cache
+		if (cache != null && board.isOnHeap()) {
+			key = new BoardCache.Key(getTopology(), mines, seed, index);
+			byte[] packed = cache.get(key);
+			if (packed != null) {
+				board.unpackMines(packed, 0);
+				return;
+			}
+		}
+		if (squares >= StripeGenerator.MIN_CELLS) {
+			// one thread would take seconds to fill a board this large
+			ForkJoinPool threads = pool != null ? pool : ForkJoinPool.commonPool();
+			new StripeGenerator(threads).generate(board, mines, index, seed);
+		} else {
+			setBoard(getMineLocs(index, new Random(seed)));
+			initializeNeighbors();
+		}
+		if (key != null) {
+			byte[] packed = new byte[(squares + 7) / 8];
+			board.packMines(packed, 0);
+			cache.put(key, packed);
+		}
 	}
 
 	/**
 	 * 
 	 * @param indexToSkip
+	 * @param random
+	 *            the source of the locations
 	 * @return a HashSet of the locations to place the mines.
 	 */
-	private HashSet<Integer> getMineLocs(int indexToSkip) {
+	private HashSet<Integer> getMineLocs(int indexToSkip, Random random) {
 		HashSet<Integer> hashset = new HashSet<Integer>();
 		while (hashset.size() < mines) {
-			int index = (int) (Math.random() * squares);
+			int index = random.nextInt(squares);
 			if (index != indexToSkip)
 				hashset.add(index);
 		}
@@ -145,14 +552,9 @@ public class Minesweeper {
 	}
 
 	private void initializeNeighbors() {
-		for (int i = 0; i < rows; i++) {
-			for (int j = 0; j < cols; j++) {
-				if (!board.getCell(i, j))
-					neighbors[i][j] = getOccupiedNeighbors(i, j);
-				else
-					neighbors[i][j] = -1;
-			}
-		}
+		for (int i = 0; i < rows; i++)
+			for (int j = 0; j < cols; j++)
+				board.setCount(board.indexOf(i, j), getOccupiedNeighbors(i, j));
 	}
 
 	/**
@@ -200,10 +602,100 @@ public class Minesweeper {
 
 	/**
 	 * 
-	 * @return the grid of neighbors
+	 * @param x
+	 *            x-index of cell
+	 * @param y
+	 *            y-index of cell
+	 * @return the number of mines that the cell borders, or -1 if the cell is
+	 *         itself a mine
+	 */
+	public int getNeighbors(int x, int y) {
+		int index = board.indexOf(y, x);
+		return board.isMine(index) ? -1 : board.getCount(index);
+	}
+
+	/**
+	 * 
+	 * @param x
+	 *            x-index of cell
+	 * @param y
+	 *            y-index of cell
+	 * @return whether the cell has been opened
+	 */
+	public boolean isRevealed(int x, int y) {
+		return board.isRevealed(board.indexOf(y, x));
+	}
+
+	/**
+	 * 
+	 * @param x
+	 *            x-index of cell
+	 * @param y
+	 *            y-index of cell
+	 * @return whether the cell has been flagged
+	 */
+	public boolean isFlagged(int x, int y) {
+		return board.isFlagged(board.indexOf(y, x));
+	}
+
+	/**
+	 * 
+	 * @param x
+	 *            x-index of cell
+	 * @param y
+	 *            y-index of cell
+	 * @return whether the cell has been marked with a question mark
+	 */
+	public boolean isQuestioned(int x, int y) {
+		return board.isQuestioned(board.indexOf(y, x));
+	}
+
+	public boolean hasStarted() {return this.started;}
+	public boolean hasWon() {return this.won;}
+	public boolean hasLost() {return this.lost;}
+	public boolean isOver() {return this.won || this.lost;}
+	public int getOpenedCells() {return this.openedCells;}
+
+	/**
+	 * 
+	 * @return the number of mines minus the number of flags placed
+	 */
+	public int getMinesRemaining() {
+		return this.mines - this.flags;
+	}
+
+	/**
+	 * 
+	 * @return the seed that the current Board was generated from
+	 */
+	public long getSeed() {
+		return this.seed;
+	}
+
+	/**
+	 * Shares generated Boards with every other game that uses the same cache.
+	 * 
+	 * @param cache
+	 *            the cache to look Boards up in, or null to always generate
+	 */
+	public void setCache(BoardCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * 
+	 * @return the Topology of the Board
+	 */
+	public Topology getTopology() {
+		return this.board.getTopology();
+	}
+
+	/**
+	 * 
+	 * @return the Board that holds the packed state of every cell
 	 */
-	public int[][] getNeighbors() {
-		return this.neighbors;
+	public Board getBoard() {
+		return this.board;
 	}
 
 	public static void main(String[] args) {
@@ -0,0 +1,317 @@
+/**
+ * MinesweeperCLI.java: A class that plays the classic game Minesweeper in a
+ * terminal, reading moves from standard input.
+ *
+ * The cells in view are drawn once when the game starts. After that, each
+ * move only sends ANSI cursor movements and the characters of the cells that
+ * changed, so that even very large boards can be played (or watched while a
+ * bot plays) over a slow connection. All output goes through one buffered
+ * writer, which is flushed once per move.
+ *
+ * Boards larger than the screen are shown through a view of at most
+ * MAX_VIEW_ROWS by MAX_VIEW_COLS cells, which is read from the Board a row
+ * at a time, so a board kept in a file (a MappedBoard) is never read as a
+ * whole. Such boards also have no undo, since their history would be copied
+ * onto the heap.
+ *
+ * Moves are given one per line:
+ *   o x y   opens the cell in column x and row y
+ *   f x y   places or removes a flag
+ *   c x y   opens the neighbors of an opened cell (a chord)
+ *   v x y   moves the view so that its top left cell is (x, y)
+ *   u       undoes the last move
+ *   r       redoes the last undone move
+ *   n       starts a new game
+ *   q       quits
+ *
+ * With a seed, every new game replays the same Board, which is then taken
+ * from a BoardCache rather than generated again.
+ *
+ * Usage: java MinesweeperCLI [rows cols mines [seed [file]]]
+ * where file, if given, keeps the board in a memory-mapped file.
+ */
+
+import java.io.*;
+import java.util.*;
+
+public class MinesweeperCLI {
+
+	private static final String ESC = "\u001b[";
+
+	/* The board is drawn starting on this line of the screen */
+	private static final int BOARD_TOP = 2;
+
+	private static final int MAX_VIEW_ROWS = 40;
+	private static final int MAX_VIEW_COLS = 120;
+	private static final long CACHE_BYTES = 16L << 20;
+
+	private final Minesweeper game;
+	private final Writer out;
+	private final Long seed;
+	private final GameHistory history;
+
+	/* The cells in view, and the states of one row of them */
+	private int viewX = 0;
+	private int viewY = 0;
+	private final int viewRows;
+	private final int viewCols;
+	private final byte[] row;
+
+	/* Position of the cursor on the screen, or -1 if unknown */
+	private int cursorRow = -1;
+	private int cursorCol = -1;
+
+	private int moves = 0;
+
+	/* Whether the mines were uncovered the last time the board was drawn */
+	private boolean wasLost = false;
+
+	/* Constructor */
+
+	/**
+	 * Creates a terminal front end for a game.
+	 * @param game the game to play
+	 * @param out where the screen is written to
+	 * @param seed the seed of every Board, or null for a random Board
+	 */
+	public MinesweeperCLI(Minesweeper game, Writer out, Long seed) {
+		this.game = game;
+		this.out = out;
+		this.seed = seed;
+		this.history = game.getBoard().isOnHeap() ? new GameHistory(game, 100000, 256L << 20) : null;
+		this.viewRows = Math.min(game.getNumRows(), MAX_VIEW_ROWS);
+		this.viewCols = Math.min(game.getNumCols(), MAX_VIEW_COLS);
+		this.row = new byte[viewCols];
+	}
+
+	/**
+	 * Runs the game.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) throws IOException {
+		int rows = 9, cols = 9, mines = 10;
+		Long seed = null;
+		if (args.length >= 3) {
+			rows = Integer.parseInt(args[0]);
+			cols = Integer.parseInt(args[1]);
+			mines = Integer.parseInt(args[2]);
+		}
+		if (args.length >= 4)
+			seed = Long.parseLong(args[3]);
+		Minesweeper game;
+		if (args.length >= 5)
+			game = new Minesweeper(MappedBoard.create(Topology.rectangular(rows, cols), new File(args[4])), mines);
+		else
+			game = new Minesweeper(rows, cols, mines);
+		if (seed != null)
+			game.setCache(new BoardCache(CACHE_BYTES));
+
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"), 1 << 16);
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+		new MinesweeperCLI(game, out, seed).play(in);
+	}
+
+	/* Methods */
+
+	/**
+	 * Reads and plays moves until the input ends or the player quits.
+	 * @param in the source of the moves
+	 */
+	public void play(BufferedReader in) throws IOException {
+		drawAll();
+		String line;
+		while ((line = in.readLine()) != null) {
+			StringTokenizer st = new StringTokenizer(line);
+			if (!st.hasMoreTokens())
+				continue;
+			String command = st.nextToken();
+			if (command.equals("q"))
+				break;
+			if (command.equals("n")) {
+				game.clear();
+				if (history != null)
+					history.reset();
+				moves = 0;
+				drawAll();
+				continue;
+			}
+			if (command.equals("u") || command.equals("r")) {
+				String message = null;
+				if (history == null)
+					message = "Undo is not available on this board";
+				else if (!(command.equals("u") ? history.undo() : history.redo()))
+					message = "Nothing to " + (command.equals("u") ? "undo" : "redo");
+				drawChanges();
+				drawStatus(message);
+				out.flush();
+				continue;
+			}
+			try {
+				int x = Integer.parseInt(st.nextToken());
+				int y = Integer.parseInt(st.nextToken());
+				if (command.equals("v"))
+					moveView(x, y);
+				else
+					move(command.charAt(0), x, y);
+			} catch (RuntimeException e) {
+				drawStatus("Unknown move: " + line);
+				out.flush();
+			}
+		}
+		moveCursor(BOARD_TOP + viewRows, 0);
+		out.write("\n");
+		out.flush();
+	}
+
+	/**
+	 * Plays one move and redraws the cells that it changed.
+	 * @param command 'o' to open, 'f' to flag or 'c' to chord
+	 * @param x x-index of the cell
+	 * @param y y-index of the cell
+	 */
+	public void move(char command, int x, int y) throws IOException {
+		if (!game.isOver()) {
+			if (command == 'o') {
+				if (!game.hasStarted() && seed != null)
+					game.setSeed(seed);
+				game.open(x, y);
+			} else if (command == 'f')
+				game.flag(x, y);
+			else if (command == 'c')
+				game.chord(x, y);
+			else
+				throw new IllegalArgumentException();
+			if (history != null)
+				history.record();
+			moves++;
+		}
+		drawChanges();
+		drawStatus(null);
+		out.flush();
+	}
+
+	/**
+	 * Moves the view, keeping it on the board, and draws it again.
+	 * @param x the column of the top left cell
+	 * @param y the row of the top left cell
+	 */
+	public void moveView(int x, int y) throws IOException {
+		viewX = Math.max(0, Math.min(x, game.getNumCols() - viewCols));
+		viewY = Math.max(0, Math.min(y, game.getNumRows() - viewRows));
+		drawAll();
+	}
+
+	/**
+	 * Clears the screen and draws every cell in view.
+	 */
+	private void drawAll() throws IOException {
+		game.clearChanges();
+		wasLost = game.hasLost();
+		out.write(ESC + "2J");
+		cursorRow = -1;
+		Board board = game.getBoard();
+		for (int y = 0; y < viewRows; y++) {
+			board.copyCells(board.indexOf(viewY + y, viewX), row, 0, viewCols);
+			moveCursor(BOARD_TOP + y, 0);
+			for (int x = 0; x < viewCols; x++)
+				putGlyph(row[x] & 0xFF);
+		}
+		drawStatus(null);
+		out.flush();
+	}
+
+	/**
+	 * Draws the cells in view that changed since the last move. The changed
+	 * cells are sorted so that runs of cells in the same row need no cursor
+	 * movement. When the game is lost, every mine in view is uncovered as
+	 * well, and when too many cells changed to list, the view is drawn again.
+	 */
+	private void drawChanges() throws IOException {
+		if (game.hasChangedAll()) {
+			drawAll();
+			return;
+		}
+		int count = game.getChangeCount();
+		int[] changes = Arrays.copyOf(game.getChanges(), count);
+		game.clearChanges();
+		Arrays.sort(changes);
+
+		int cols = game.getNumCols();
+		Board board = game.getBoard();
+		for (int i = 0; i < count; i++)
+			drawCell(changes[i] % cols, changes[i] / cols, board.getState(changes[i]));
+
+		if (count > 0 && (game.hasLost() || wasLost)) {
+			for (int y = 0; y < viewRows; y++) {
+				board.copyCells(board.indexOf(viewY + y, viewX), row, 0, viewCols);
+				for (int x = 0; x < viewCols; x++)
+					if (((row[x] & Board.MINE) != 0) != ((row[x] & Board.FLAGGED) != 0))
+						drawCell(viewX + x, viewY + y, row[x] & 0xFF);
+			}
+		}
+		wasLost = game.hasLost();
+	}
+
+	/**
+	 * Draws a cell, if it is in view.
+	 */
+	private void drawCell(int x, int y, int state) throws IOException {
+		if (x < viewX || x >= viewX + viewCols || y < viewY || y >= viewY + viewRows)
+			return;
+		moveCursor(BOARD_TOP + y - viewY, x - viewX);
+		putGlyph(state);
+	}
+
+	private void drawStatus(String message) throws IOException {
+		moveCursor(0, 0);
+		out.write(ESC + "2K");
+		String state = game.hasWon() ? "won" : game.hasLost() ? "lost" : "playing";
+		out.write("Mines: " + game.getMinesRemaining() + "  Moves: " + moves + "  " + state);
+		if (viewRows < game.getNumRows() || viewCols < game.getNumCols())
+			out.write("  View: " + viewX + " " + viewY);
+		if (message != null)
+			out.write("  " + message);
+		moveCursor(BOARD_TOP + viewRows, 0);
+		out.write(ESC + "2K> ");
+		cursorRow = -1;
+	}
+
+	/**
+	 * Moves the cursor to a position on the screen, unless it is already there.
+	 * @param row zero-based line of the screen
+	 * @param col zero-based column of the screen
+	 */
+	private void moveCursor(int row, int col) throws IOException {
+		if (row == cursorRow && col == cursorCol)
+			return;
+		out.write(ESC + (row + 1) + ";" + (col + 1) + "H");
+		cursorRow = row;
+		cursorCol = col;
+	}
+
+	/**
+	 * Writes the character of a cell at the position of the cursor.
+	 */
+	private void putGlyph(int state) throws IOException {
+		out.write(getGlyph(state, game.hasLost()));
+		cursorCol++;
+	}
+
+	/**
+	 * @param state the packed state of a cell, as in the Board class
+	 * @param lost whether the game has been lost, which uncovers the mines
+	 * @return the character that shows the visible state of a cell
+	 */
+	static char getGlyph(int state, boolean lost) {
+		boolean mine = (state & Board.MINE) != 0;
+		if ((state & Board.FLAGGED) != 0)
+			return lost && !mine ? 'X' : 'F';
+		if ((state & Board.REVEALED) == 0)
+			return lost && mine ? '*' : '#';
+		if (mine)
+			return '@';
+		int neighbors = state & Board.COUNT_MASK;
+		return neighbors == 0 ? '.' : (char) ('0' + neighbors);
+	}
+}
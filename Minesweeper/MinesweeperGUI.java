@@ -10,22 +10,70 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.*;
 import java.io.*;
+import java.lang.management.*;
 import java.util.StringTokenizer;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import javax.imageio.*;
 import javax.swing.*;
 
 public class MinesweeperGUI {
 
-	private Minesweeper game = new Minesweeper(9, 9, 10);
-	private int difficulty = 0;
+	/**
+	 * By default, the games of the other difficulties are only created when
+	 * they are chosen, and the images and high scores are loaded in the
+	 * background while the first frame is shown. Running with
+	 * -Dminesweeper.startup=eager does all of this before the frame is shown,
+	 * and -Dminesweeper.metrics=true reports the time to the first frame.
+	 * Times are measured from the start of the Java virtual machine, so that
+	 * they include starting it and loading the classes of the game.
+	 */
+	private static final boolean EAGER_STARTUP = "eager".equals(System.getProperty("minesweeper.startup"));
+	private static final boolean REPORT_METRICS = Boolean.getBoolean("minesweeper.metrics");
+	private volatile long timeToFirstFrame = -1;
+	/* When the board was first painted, or -1 */
+	private long firstFrameMillis = -1;
 	
-	private Minesweeper[] games = { new Minesweeper(9, 9, 10),
-			new Minesweeper(16, 16, 40), new Minesweeper(16, 30, 99) };
+	/* rows, columns and mines of each difficulty */
+	private static final int[][] DIFFICULTIES = { { 9, 9, 10 }, { 16, 16, 40 }, { 16, 30, 99 } };
+	private Minesweeper[] games = new Minesweeper[DIFFICULTIES.length];
+	
+	private Minesweeper game = getGame(0);
+	private int difficulty = 0;
 
 	private int numCols = game.getNumCols();
 	private int numRows = game.getNumRows();
 
+	/**
+	 * The rules of the game run on the thread of the engine. The event
+	 * dispatch thread only submits moves and draws the Snapshots that the
+	 * engine publishes; when several Snapshots are published before the
+	 * display catches up, only the latest is drawn.
+	 */
+	private final int INPUT_CAPACITY = 1024;
+	private final AtomicBoolean refreshPending = new AtomicBoolean(false);
+	private final Runnable refresh = new Runnable() {
+		public void run() {
+			refreshPending.set(false);
+			grid.showSnapshot(engine.getSnapshot());
+		}
+	};
+	private final GameEngine engine = new GameEngine(game, INPUT_CAPACITY, new Runnable() {
+		public void run() {
+			if (refreshPending.compareAndSet(false, true))
+				SwingUtilities.invokeLater(refresh);
+		}
+	});
+	private int gameNumber = 0;
+
+	/**
+	 * Every move is published to spectators, who watch in windows of their
+	 * own and never hold up the engine.
+	 */
+	private final SpectatorStream spectators = new SpectatorStream(256, 64);
+	private final int SPECTATOR_DELAY = 30;
+
 	private TimePanel timePanel = new TimePanel();
 	private Grid grid = new Grid();
 	private JFrame frame = new JFrame("Minesweeper");
@@ -42,6 +90,21 @@ public class MinesweeperGUI {
 	private int currentTime = 0;
 	
 	private final String highScorePath = "scores.txt";
+	private final String statisticsPath = "stats.dat";
+	private final GameStatistics statistics = new GameStatistics();
+
+	/**
+	 * Counted down once the saved statistics have been added to statistics.
+	 * Games may be recorded before then, but not saved, or the file would
+	 * be replaced by the games of this session alone.
+	 */
+	private final CountDownLatch statisticsLoaded = new CountDownLatch(1);
+	
+	/**
+	 * Reads and writes the high score file in order, off the event dispatch
+	 * thread.
+	 */
+	private final ExecutorService highScoreIO = Executors.newSingleThreadExecutor();
 
 	/**
 	 * Runs the game.
@@ -49,7 +112,11 @@ public class MinesweeperGUI {
 	 * @param args
 	 */
 	public static void main(String[] args) {
-		new MinesweeperGUI();
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				new MinesweeperGUI();
+			}
+		});
 	}
 
 	/* Constructor */
@@ -58,8 +125,16 @@ public class MinesweeperGUI {
 	 * Creates a GUI for the Minesweeper game.
 	 */
 	public MinesweeperGUI() {
-		try {setHighScores();} catch (Exception e) {}
+		AssetLoader loader = new AssetLoader();
+		if (EAGER_STARTUP) {
+			for (int i = 0; i < games.length; i++)
+				getGame(i);
+			loader.load();
+			loader.install();
+		} else
+			loader.execute();
 		
+		engine.setSpectators(spectators);
 		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		grid.repaint();
 		MenuBar menubar = new MenuBar();
@@ -75,6 +150,106 @@ public class MinesweeperGUI {
 		frame.setVisible(true);
 	}
 	
+	/**
+	 * @param index the difficulty
+	 * @return the game of the difficulty, which is created the first time
+	 */
+	private Minesweeper getGame(int index) {
+		if (games[index] == null)
+			games[index] = new Minesweeper(DIFFICULTIES[index][0],
+					DIFFICULTIES[index][1], DIFFICULTIES[index][2]);
+		return games[index];
+	}
+	
+	/**
+	 * @return the time, in milliseconds, from the start of the Java virtual
+	 *         machine until the board was first painted, or -1 until that is
+	 *         known, shortly after the first frame
+	 */
+	public long getTimeToFirstFrame() {
+		return timeToFirstFrame;
+	}
+	
+	/**
+	 * Notes when the first frame is painted. Looking up when the Java virtual
+	 * machine started takes tens of milliseconds the first time, so that is
+	 * left until the frame is on the screen.
+	 */
+	private void recordFirstFrame() {
+		firstFrameMillis = System.currentTimeMillis();
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				timeToFirstFrame = sinceLaunch(firstFrameMillis);
+				if (REPORT_METRICS)
+					System.err.printf("Time to first frame: %d ms since JVM start%n", timeToFirstFrame);
+			}
+		});
+	}
+
+	/**
+	 * @param millis a time, as by System.currentTimeMillis
+	 * @return the milliseconds from the start of the Java virtual machine
+	 *         until that time
+	 */
+	private static long sinceLaunch(long millis) {
+		return millis - ManagementFactory.getRuntimeMXBean().getStartTime();
+	}
+	
+	/**
+	 * Reads the images and makes sure the high score file exists, off the
+	 * event dispatch thread. Until the images are installed, the cells are
+	 * drawn as plain placeholders.
+	 */
+	private class AssetLoader extends SwingWorker<Void, Void> {
+		private final BufferedImage[] tiles = new BufferedImage[14];
+		private final BufferedImage[] digits = new BufferedImage[11];
+		
+		protected Void doInBackground() {
+			load();
+			return null;
+		}
+		
+		protected void done() {
+			install();
+		}
+		
+		void load() {
+			try {setHighScores();} catch (Exception e) {}
+			try {
+				statistics.merge(GameStatistics.load(new File(statisticsPath)));
+			} catch (Exception e) { // start again if the file is damaged
+			} finally {
+				statisticsLoaded.countDown();
+			}
+			for (int i = 0; i < tiles.length; i++)
+				try {
+					tiles[i] = ImageIO.read(new File("tile_" + i + ".JPG"));
+				} catch (Exception e) {}
+			for (int i = 0; i < digits.length-1; i++)
+				try {
+					digits[i] = ImageIO.read(new File("time" + i + ".gif"));
+				} catch (Exception e) {} // no Exception should be thrown
+			try {
+				digits[10] = ImageIO.read(new File("time-.gif"));
+			} catch (Exception e) {} // no Exception should be thrown
+		}
+		
+		void install() {
+			System.arraycopy(tiles, 0, grid.images, 0, tiles.length);
+			System.arraycopy(digits, 0, timePanel.digits, 0, digits.length);
+			grid.repaint();
+			timePanel.repaint();
+			if (REPORT_METRICS) {
+				final long loaded = System.currentTimeMillis();
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						System.err.printf("Assets loaded: %d ms since JVM start%n", sinceLaunch(loaded));
+					}
+				});
+			}
+		}
+	}
+	
 	public void setHighScores() throws Exception {
 		File file = new File(highScorePath);
 		if (!file.exists()) {
@@ -121,6 +296,34 @@ public class MinesweeperGUI {
 			gameMenu.add(inter);
 			gameMenu.add(advanced);
 			
+			JMenuItem undo = new JMenuItem("Undo");
+			undo.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK));
+			undo.addActionListener(new ActionListener() {
+				public void actionPerformed(ActionEvent event) {
+					engine.submit(GameEngine.UNDO, 0, 0);
+				}
+			});
+			JMenuItem redo = new JMenuItem("Redo");
+			redo.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK));
+			redo.addActionListener(new ActionListener() {
+				public void actionPerformed(ActionEvent event) {
+					engine.submit(GameEngine.REDO, 0, 0);
+				}
+			});
+			
+			JMenuItem watch = new JMenuItem("Watch");
+			watch.addActionListener(new ActionListener() {
+				public void actionPerformed(ActionEvent event) {
+					new Spectator().open();
+				}
+			});
+			
+			gameMenu.addSeparator();
+			gameMenu.add(undo);
+			gameMenu.add(redo);
+			gameMenu.addSeparator();
+			gameMenu.add(watch);
+			
 			return menubar;
 		}
 		
@@ -128,8 +331,8 @@ public class MinesweeperGUI {
 		public void actionPerformed(ActionEvent event) {
 			JMenuItem source = (JMenuItem)(event.getSource());
 			int index = Integer.parseInt(source.getName());
-			game = games[index];
-			game.clear();
+			game = getGame(index);
+			gameNumber = engine.newGame(game);
 			difficulty = index;
 			updateVariables();
 			grid.repaint();
@@ -152,6 +355,90 @@ public class MinesweeperGUI {
 		}
 	}
 	
+	/**
+	 * A window that shows the game as a spectator sees it, rebuilt from the
+	 * frames of the SpectatorStream. The window reads every frame that has
+	 * arrived on each tick of its timer and repaints only if any did.
+	 */
+	public class Spectator extends JPanel {
+
+		private static final long serialVersionUID = 1L;
+
+		private final SpectatorStream.Subscriber subscriber = spectators.subscribe();
+		private final SpectatorStream.View view = new SpectatorStream.View();
+		private final JFrame window = new JFrame("Minesweeper - spectator");
+		private final Timer ticker = new Timer(SPECTATOR_DELAY, new ActionListener() {
+			public void actionPerformed(ActionEvent event) {
+				update();
+			}
+		});
+
+		public void open() {
+			window.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+			window.addWindowListener(new WindowAdapter() {
+				public void windowClosed(WindowEvent event) {
+					ticker.stop();
+				}
+			});
+			window.add(this);
+			window.setResizable(false);
+			update();
+			window.pack();
+			window.setVisible(true);
+			ticker.start();
+		}
+
+		private void update() {
+			int rows = view.getNumRows();
+			int cols = view.getNumCols();
+			boolean changed = false;
+			SpectatorStream.Frame next;
+			while ((next = subscriber.poll()) != null)
+				changed |= view.apply(next);
+			if (!changed)
+				return;
+			if (rows != view.getNumRows() || cols != view.getNumCols())
+				window.pack();
+			repaint();
+		}
+
+		@Override
+		protected void paintComponent(Graphics g) {
+			super.paintComponent(g);
+			Graphics2D g2 = (Graphics2D) g;
+			BufferedImage[] images = grid.images;
+			for (int i = 0; i < view.getNumRows(); i++) {
+				for (int j = 0; j < view.getNumCols(); j++) {
+					int state = view.getState(j, i);
+					boolean mine = (state & Board.MINE) != 0;
+					BufferedImage img;
+					if ((state & Board.FLAGGED) != 0)
+						img = images[view.hasLost() && !mine ? 13 : 12];
+					else if ((state & Board.REVEALED) == 0)
+						img = images[mine ? 10 : 11];
+					else
+						img = images[mine ? 0 : (state & Board.COUNT_MASK) + 1];
+					int x = j * CELL_DIMENSION;
+					int y = i * CELL_DIMENSION;
+					if (img == null) {
+						g2.setColor(Color.LIGHT_GRAY);
+						g2.fillRect(x, y, CELL_DIMENSION, CELL_DIMENSION);
+					} else
+						g2.drawImage(img, x, y, x + CELL_DIMENSION, y + CELL_DIMENSION,
+								0, 0, CELL_DIMENSION, CELL_DIMENSION, null);
+				}
+			}
+		}
+
+		@Override
+		public Dimension getPreferredSize() {
+			// until the first keyframe arrives, the size of the game is used
+			int rows = view.getNumRows() > 0 ? view.getNumRows() : numRows;
+			int cols = view.getNumCols() > 0 ? view.getNumCols() : numCols;
+			return new Dimension(cols * CELL_DIMENSION, rows * CELL_DIMENSION);
+		}
+	}
+	
 	public class TimePanel extends JPanel {
 
 		private static final long serialVersionUID = 1L;
@@ -163,17 +450,6 @@ public class MinesweeperGUI {
 		private final int PANEL_HEIGHT = 32;
 		private final int HEIGHT_OFFSET = 7;
 		
-		public TimePanel() {
-			for (int i = 0; i < digits.length-1; i++)
-				try {
-					digits[i] = ImageIO.read(new File("time" + i + ".gif"));
-				} catch (Exception e) {} // no Exception should be thrown
-			try {
-				digits[10] = ImageIO.read(new File("time-.gif"));
-			} catch (Exception e) {} // no Exception should be thrown
-			
-		}
-		
 		protected void paintComponent(Graphics g) {
 			super.paintComponent(g);
 			Graphics2D g2 = (Graphics2D) g;
@@ -218,8 +494,8 @@ public class MinesweeperGUI {
 	}
 
 	/**
-	 * The Grid class is the graphical implementation of the game. All changes
-	 * to the game state occur here.
+	 * The Grid class is the graphical implementation of the game. Moves made
+	 * here are sent to the engine, and the Snapshots it publishes are drawn.
 	 */
 	public class Grid extends JPanel {
 
@@ -228,13 +504,41 @@ public class MinesweeperGUI {
 		private boolean hasWon = false;
 		private boolean hasLost = false;
 
-		private boolean[][] visited = new boolean[numRows][numCols];
-		private boolean[][] flagged = new boolean[numRows][numCols];
-		private boolean[][] shaded = new boolean[numRows][numCols];
+		/**
+		 * The latest state of the game published by the engine.
+		 */
+		private GameEngine.Snapshot snapshot = engine.getSnapshot();
+
+		/**
+		 * Only the cells shaded by the mouse, at most a three-by-three
+		 * block, are tracked here as (x, y) pairs.
+		 */
+		private int[] shaded = new int[2 * (Topology.MAX_DEGREE + 1)];
+		private int numShaded = 0;
 		
-		private JButton newGameButton = new JButton(" ");
+		/**
+		 * Holds the neighbors of a cell when shading for a chord.
+		 */
+		private final int[] adjacent = new int[Topology.MAX_DEGREE];
 		
-		private boolean hasNotStarted = true;
+		private JButton newGameButton = new JButton(" ");
+
+		/**
+		 * Moves made in the present game, and when its timer started, for
+		 * the statistics. A game is only added to them once, even if its
+		 * last move is undone and played again.
+		 */
+		private int clicks = 0;
+		private int flagClicks = 0;
+		private int chordClicks = 0;
+		private long startNanos = 0;
+		private boolean recorded = false;
+
+		/**
+		 * Whether a move that lost the present game was undone. The game can
+		 * still be played to the end, but a win no longer earns a high score.
+		 */
+		private boolean lossUndone = false;
 		
 		/**
 		 * These global booleans are needed for compatibility of shading squares
@@ -243,10 +547,9 @@ public class MinesweeperGUI {
 		private boolean isRightClick = false;
 		private boolean isLeftClick = false;
 
-		private int openedCells = 0;
-
 		/**
-		 * This array holds the images for the individual cells.
+		 * This array holds the images for the individual cells. They are
+		 * filled in by the AssetLoader.
 		 */
 		private final BufferedImage[] images = new BufferedImage[14];
 
@@ -273,7 +576,7 @@ public class MinesweeperGUI {
 				public void mouseReleased(MouseEvent event) {
 					if (hasLost) return;
 					// no squares are shaded anymore
-					shaded = new boolean[numRows][numCols];
+					numShaded = 0;
 					openCells(event);
 				}
 			};
@@ -290,12 +593,6 @@ public class MinesweeperGUI {
 			};
 			addMouseMotionListener(dragListener);
 
-			/* Images */
-			for (int i = 0; i < images.length; i++)
-				try {
-					images[i] = ImageIO.read(new File("tile_" + i + ".JPG"));
-				} catch (Exception e) {}
-
 			/* Buttons */
 			ActionListener newGameListener = new NewGameListener();
 			newGameButton.addActionListener(newGameListener);
@@ -321,17 +618,20 @@ public class MinesweeperGUI {
 				int x = event.getX() / CELL_DIMENSION;
 				int y = event.getY() / CELL_DIMENSION;
 				if (both) {
-					if (visited[y][x]) 
-						if (getFlaggedNeighbors(x, y) == game.getNeighbors()[y][x])
-							for (int i = x - 1; i < x + 2; i++)
-								for (int j = y - 1; j < y + 2; j++)
-									openCell(i, j);
-					 
-				} else if (left)
-					openCell(x, y);
+					if (engine.submit(GameEngine.CHORD, x, y)) {
+						clicks++;
+						chordClicks++;
+					}
+				}
+				else if (left) {
+					if (engine.submit(GameEngine.OPEN, x, y))
+						clicks++;
+				}
 				else if (right)
-					if (minesRemaining > -99)
-						flagCell(x, y);
+					if (minesRemaining > -99 && engine.submit(GameEngine.FLAG, x, y)) {
+						clicks++;
+						flagClicks++;
+					}
 				repaint();
 			}
 		}
@@ -346,10 +646,13 @@ public class MinesweeperGUI {
 				isRightClick = isRightClick || SwingUtilities.isRightMouseButton(event);
 				int x = event.getX() / CELL_DIMENSION;
 				int y = event.getY() / CELL_DIMENSION;
-				if (isLeftClick && isRightClick)
-					for (int i = x - 1; i < x + 2; i++)
-						for (int j = y - 1; j < y + 2; j++)
-							shadeCell(i, j);
+				numShaded = 0;
+				if (isLeftClick && isRightClick) {
+					shadeCell(x, y);
+					int count = game.getTopology().getNeighbors(y * numCols + x, adjacent);
+					for (int i = 0; i < count; i++)
+						shadeCell(adjacent[i] % numCols, adjacent[i] / numCols);
+				}
 				else if (isLeftClick)
 					shadeCell(x, y);
 				
@@ -363,7 +666,7 @@ public class MinesweeperGUI {
 		 */
 		private class NewGameListener implements ActionListener {
 			public void actionPerformed(ActionEvent event) {
-				game.clear();
+				gameNumber = engine.newGame(game);
 				resetVariables();
 				timer.stop();
 				repaint();
@@ -378,41 +681,45 @@ public class MinesweeperGUI {
 		@Override
 		protected void paintComponent(Graphics g) {
 			super.paintComponent(g);
+			if (firstFrameMillis < 0)
+				recordFirstFrame();
 			
 			// for drawing the images, Graphics2D is needed
 			Graphics2D g2 = (Graphics2D) g;
+			GameEngine.Snapshot state = snapshot;
+			boolean lost = state.hasLost();
 
-			for (int i = 0; i < numRows; i++) {
-				for (int j = 0; j < numCols; j++) {
+			for (int i = 0; i < state.getNumRows(); i++) {
+				for (int j = 0; j < state.getNumCols(); j++) {
 					BufferedImage img = null;
 					
 					// if game has not been lost, game will display as usual
-					if (!hasLost) {
-						if (flagged[i][j])
+					if (!lost) {
+						if (state.isFlagged(j, i))
 							img = images[12];
-						else if (shaded[i][j])
-							img = images[1];
-						else if (!visited[i][j])
+						else if (!state.isRevealed(j, i))
 							img = images[11];
 						else
-							img = images[game.getNeighbors()[i][j] + 1];
+							img = images[state.getNeighbors(j, i) + 1];
 					} else { // if game has been lost, opened mine(s) will be shown in red
-						if (flagged[i][j])
-							if (game.getCell(j, i)) img = images[12];
+						if (state.isFlagged(j, i))
+							if (state.isMine(j, i)) img = images[12];
 							else img = images[13];
-						else if (!visited[i][j]) // and all other mines will be shown
-							if (game.getCell(j, i)) img = images[10];
+						else if (!state.isRevealed(j, i)) // and all other mines will be shown
+							if (state.isMine(j, i)) img = images[10];
 							else img = images[11];
 						else
-							img = images[game.getNeighbors()[i][j] + 1];
+							img = images[state.getNeighbors(j, i) + 1];
 					}
-					g2.drawImage(img, j * CELL_DIMENSION, i * CELL_DIMENSION,
-							(j + 1) * CELL_DIMENSION, (i + 1) * CELL_DIMENSION,
-							0, 0, CELL_DIMENSION, CELL_DIMENSION, null);
+					drawCell(g2, img, j, i);
 				}
 			}
-			// clears the array of shaded cells
-			shaded = new boolean[numRows][numCols];
+			// shaded cells are drawn over the unopened cells beneath them
+			if (!lost)
+				for (int k = 0; k < numShaded; k += 2)
+					drawCell(g2, images[1], shaded[k], shaded[k + 1]);
+			// clears the list of shaded cells
+			numShaded = 0;
 
 			// draws a grid for visual contrast between cells
 			g.setColor(new Color(160, 160, 160));
@@ -422,86 +729,122 @@ public class MinesweeperGUI {
 				g.drawLine(0, i, width, i);
 		}
 
+		private void drawCell(Graphics2D g2, BufferedImage img, int x, int y) {
+			if (img == null) { // the images are still loading
+				g2.setColor(Color.LIGHT_GRAY);
+				g2.fillRect(x * CELL_DIMENSION, y * CELL_DIMENSION, CELL_DIMENSION, CELL_DIMENSION);
+				return;
+			}
+			g2.drawImage(img, x * CELL_DIMENSION, y * CELL_DIMENSION,
+					(x + 1) * CELL_DIMENSION, (y + 1) * CELL_DIMENSION,
+					0, 0, CELL_DIMENSION, CELL_DIMENSION, null);
+		}
+
 		/**
-		 * Opens the specified cell. If the cell that is opened has no
-		 * neighboring mines, all neighboring cells are opened as well.
-		 * If the cell clicked is a mine, the game will end.
-		 * @param x
-		 *            x-index of the cell to be opened
-		 * @param y
-		 *            y-index of the cell to be opened
-		 * 
+		 * Draws a Snapshot published by the engine, and starts or stops the
+		 * timer and ends the game as it requires. Snapshots of games that
+		 * have since been replaced by a new game are ignored.
+		 * @param next the latest Snapshot
 		 */
-		private void openCell(int x, int y) {
-			if (hasNotStarted) {
-				game.setBoard(x, y);
-				hasNotStarted = false;
-				timer.start();
-			}
-			if (!game.isValid(x, y) || hasWon || visited[y][x] || flagged[y][x])
+		private void showSnapshot(GameEngine.Snapshot next) {
+			if (next.getGameNumber() != gameNumber)
 				return;
-			visited[y][x] = true;
-			if (game.getCell(x, y))
-				loseGame();
-			else {
-				openedCells++;
-				if (openedCells == game.getSquares() - game.getMines())
+			snapshot = next;
+			minesRemaining = next.getMinesRemaining();
+			if (next.hasLost()) {
+				if (!hasLost) {
+					recordGame(next);
+					loseGame();
+				}
+			} else if (next.hasWon()) {
+				if (!hasWon) {
+					recordGame(next);
 					winGame();
-				else if (game.getNeighbors()[y][x] == 0) {
-					for (int i = x - 1; i < x + 2; i++)
-						for (int j = y - 1; j < y + 2; j++)
-							if (i != x || j != y)
-								openCell(i, j);
+				}
+			} else {
+				// a move that ended the game may have been undone
+				if (hasLost)
+					lossUndone = true;
+				hasWon = false;
+				hasLost = false;
+				newGameButton.setText(" ");
+				if (!next.hasStarted()) {
+					timer.stop();
+					currentTime = 0;
+					startNanos = 0;
+				} else if (!timer.isRunning()) {
+					if (startNanos == 0)
+						startNanos = System.nanoTime();
+					timer.start();
 				}
 			}
+			repaint();
+			timePanel.repaint();
 		}
 
 		/**
-		 * Updates the two-dimensional array of flagged cells, as well as the
-		 * number of flags remaining.
-		 * 
-		 * @param x
-		 *            x-coordinate of the cell to flag.
-		 * @param y
-		 *            y-coordinate of the cell to flag.
+		 * Adds the game that just ended to the statistics, and saves them in
+		 * the background.
+		 * @param end the Snapshot in which the game ended
 		 */
-		private void flagCell(int x, int y) {
-			if (!visited[y][x] && !hasWon) {
-				if (flagged[y][x]) minesRemaining++;
-				else minesRemaining--;
-				flagged[y][x] = !flagged[y][x];
-			}
-			timePanel.repaint();
+		private void recordGame(GameEngine.Snapshot end) {
+			if (recorded)
+				return;
+			recorded = true;
+			long duration = startNanos == 0 ? 0 : (System.nanoTime() - startNanos) / 1000000;
+			statistics.record(difficulty, System.currentTimeMillis(), end.hasWon(), duration,
+					clicks, flagClicks, chordClicks, end.get3BV(), end.getLostCell());
+			highScoreIO.execute(new Runnable() {
+				public void run() {
+					try {
+						statisticsLoaded.await();
+						statistics.save(new File(statisticsPath));
+					} catch (Exception e) {}
+				}
+			});
 		}
 
 		/**
-		 * Disables the grid, displays and updates high scores.
+		 * Disables the grid, displays and updates high scores, unless the game
+		 * was only won after undoing a loss.
 		 */
 		private void winGame() {
 			timer.stop();
 			hasWon = true;
 			minesRemaining = 0;
 			newGameButton.setText("W");
-			for(int i = 0; i < numRows; i++)
-				for (int j = 0; j < numCols; j++)
-					if (game.getCell(j, i))
-						flagged[i][j] = true;
 			timePanel.repaint();
 			repaint();
-			try {
-				displayHighScores();
-			} catch (Exception e) {}
+			if (lossUndone)
+				return;
 			
+			// the file is read off the event dispatch thread, and the
+			// dialogs are shown back on it
+			final int time = currentTime;
+			final int level = difficulty;
+			highScoreIO.execute(new Runnable() {
+				public void run() {
+					final int[] scores = new int[3];
+					final String[] names = new String[3];
+					try {
+						readHighScores(scores, names);
+					} catch (Exception e) {
+						return;
+					}
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							displayHighScores(scores, names, time, level);
+						}
+					});
+				}
+			});
 		}
 		
 		/**
 		 * 
 		 * @throws Exception will not throw as file is guaranteed to exist
 		 */
-		private void displayHighScores() throws Exception {
-			int[] scores = new int[3];
-			String[] names = new String[3];
-
+		private void readHighScores(int[] scores, String[] names) throws Exception {
 			File file = new File(highScorePath);
 
 			BufferedReader br = new BufferedReader(new FileReader(file));
@@ -514,7 +857,13 @@ public class MinesweeperGUI {
 				}
 			}
 			br.close();
-
+		}
+		
+		/**
+		 * Asks for a name if the time is a new high score, and shows the
+		 * high scores. Any changes are written in the background.
+		 */
+		private void displayHighScores(int[] scores, String[] names, int currentTime, int difficulty) {
 			if (currentTime < scores[difficulty]) {
 				
 				String input = "";
@@ -524,7 +873,7 @@ public class MinesweeperGUI {
 							JOptionPane.PLAIN_MESSAGE);
 				scores[difficulty] = currentTime;
 				names[difficulty] = input;
-				writeHighScores(scores, names, file);
+				writeHighScores(scores, names);
 			}
 			int input = 1;
 			while (input == 1) {
@@ -544,17 +893,26 @@ public class MinesweeperGUI {
 				if (input == 1) {
 					scores = new int[] { 999, 999, 999 };
 					names = new String[] { "Anonymous", "Anonymous", "Anonymous" };
-					writeHighScores(scores, names, file);
+					writeHighScores(scores, names);
 				}
 			}
 
 		}
 
-		private void writeHighScores(int[] scores, String[] names, File file) throws Exception {
-			PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
-			for (int i = 0; i < scores.length; i++)
-				out.println(scores[i] + " " + names[i]);
-			out.close();
+		private void writeHighScores(int[] scores, String[] names) {
+			final int[] savedScores = scores.clone();
+			final String[] savedNames = names.clone();
+			highScoreIO.execute(new Runnable() {
+				public void run() {
+					try {
+						File file = new File(highScorePath);
+						PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+						for (int i = 0; i < savedScores.length; i++)
+							out.println(savedScores[i] + " " + savedNames[i]);
+						out.close();
+					} catch (Exception e) {}
+				}
+			});
 		}
 		
 		/**
@@ -570,47 +928,36 @@ public class MinesweeperGUI {
 		}
 
 		/**
-		 * Updates the two-dimensional array of cells to shade.
+		 * Adds a cell to the list of cells to shade.
 		 * @param x x-coordinate of the cell to shade
 		 * @param y y-coordinate of the cell to shade
 		 */
 		private void shadeCell(int x, int y) {
-			if (!game.isValid(x, y) || hasWon || visited[y][x] || flagged[y][x])
+			GameEngine.Snapshot state = snapshot;
+			if (!state.isValid(x, y) || hasWon || state.isRevealed(x, y) || state.isFlagged(x, y)
+					|| numShaded == shaded.length)
 				return;
-			shaded[y][x] = true;
+			shaded[numShaded++] = x;
+			shaded[numShaded++] = y;
 		}
 
-		/**
-		 * Determines the number of flagged neighbors of the specified cell.
-		 * @param x x-coordinate of the cell
-		 * @param y y-coordinate of the cell
-		 * @return the number of flagged neighbors of the cell.
-		 */
-		private int getFlaggedNeighbors(int x, int y) {
-			int total = 0;
-			for (int i = x - 1; i < x + 2; i++)
-				for (int j = y - 1; j < y + 2; j++)
-					if (game.isValid(i, j))
-						if (flagged[j][i])
-							total++;
-			return total;
-		}
-		
-		
 		private void resetVariables() {		
-			hasNotStarted = true;
 			hasWon = false;
 			hasLost = false;
 
-			visited = new boolean[numRows][numCols];
-			flagged = new boolean[numRows][numCols];
-			shaded = new boolean[numRows][numCols];
+			numShaded = 0;
 
-			openedCells = 0;
 			minesRemaining = game.getMines();
 			newGameButton.setText(" ");
 			currentTime = 0;
 			
+			clicks = 0;
+			flagClicks = 0;
+			chordClicks = 0;
+			startNanos = 0;
+			recorded = false;
+			lossUndone = false;
+			
 			isRightClick = false;
 			isLeftClick = false;
 		}
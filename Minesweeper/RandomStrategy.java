@@ -0,0 +1,38 @@
+/*
+ * RandomStrategy.java: Opens a random unopened, unflagged cell every move.
+ * It is the baseline that every other Strategy should beat.
+ */
+
+import java.util.*;
+
+public class RandomStrategy implements Strategy {
+
+	/* One generator for every game, so that no two games repeat its moves */
+	private final Random random;
+
+	public RandomStrategy() {
+		this(new Random().nextLong());
+	}
+
+	/**
+	 * @param seed the seed of the moves, for a Strategy whose games must be
+	 *            repeatable
+	 */
+	public RandomStrategy(long seed) {
+		random = new Random(seed);
+	}
+
+	public void newGame(VisibleBoard board) {
+	}
+
+	public Move nextMove(VisibleBoard board) {
+		int squares = board.getSquares();
+		int start = random.nextInt(squares);
+		for (int i = 0; i < squares; i++) {
+			int cell = (start + i) % squares;
+			if (!board.isRevealed(cell) && !board.isFlagged(cell))
+				return Move.open(cell % board.getNumCols(), cell / board.getNumCols());
+		}
+		return Move.open(0, 0);
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Rules.java: The moves of Minesweeper, as they act on the cells of a board
+ * of any shape, shared by Minesweeper and EndlessMinesweeper.
+ *
+ * A game is seen through the Field interface: the packed states of its
+ * cells, as in the Board class, the neighbors of each cell, and whether the
+ * game is over. Cells are addressed by a long, so that a board without edges
+ * can address a cell by both of its coordinates. Every move does nothing
+ * once the game is over, and the flood fill of an opening asks the Field
+ * about every cell it opens, so that the game can end it part way through.
+ *
+ * The flood fill visits cells breadth first, so the cells waiting to be
+ * opened are only those on the edge of the opening as it spreads, which on a
+ * flat board is about the square root of the number of cells it opens. A
+ * depth first fill could keep almost every cell of a large opening waiting
+ * at once, which on a board kept off the heap would hold an array as large
+ * as the board.
+ */
+
+public class Rules {
+
+	/**
+	 * A game whose cells the rules act on.
+	 */
+	public interface Field {
+		/**
+		 * @return the packed state of a cell, as in the Board class
+		 */
+		int getState(long cell);
+
+		void setState(long cell, int state);
+
+		/**
+		 * Writes the neighbors of a cell, not the cell itself, into dest.
+		 * @return the number of neighbors written
+		 */
+		int getNeighbors(long cell, long[] dest);
+
+		boolean isOver();
+
+		/**
+		 * Called for each cell that a move opens, in the order they are
+		 * opened. A mine that is opened should end the game.
+		 * @param state the packed state of the cell, now open
+		 * @return false to stop the flood fill; the cells still waiting to
+		 *         be opened are closed again
+		 */
+		boolean opened(long cell, int state);
+	}
+
+	private final Field field;
+
+	/**
+	 * Cells waiting to be opened by the flood fill, a queue in a ring whose
+	 * length is a power of two, and the neighbors of one cell
+	 */
+	private long[] pending = new long[64];
+	private final long[] adjacent;
+	private final long[] block;
+
+	/* Constructor */
+
+	/**
+	 * @param field the game to act on
+	 * @param maxNeighbors the most neighbors any cell of the game has
+	 */
+	public Rules(Field field, int maxNeighbors) {
+		this.field = field;
+		this.adjacent = new long[maxNeighbors];
+		this.block = new long[maxNeighbors];
+	}
+
+	/* Moves */
+
+	/**
+	 * Opens a cell that is neither open nor flagged. If it has no
+	 * neighboring mines, its neighbors are opened as well, and so on.
+	 */
+	public void open(long start) {
+		int state = field.getState(start);
+		if (field.isOver() || (state & (Board.REVEALED | Board.FLAGGED)) != 0)
+			return;
+		field.setState(start, state | Board.REVEALED);
+		long head = 0;
+		long tail = 0;
+		pending[(int) (tail++ & (pending.length - 1))] = start;
+		while (head < tail) {
+			long cell = pending[(int) (head++ & (pending.length - 1))];
+			state = field.getState(cell);
+			if (!field.opened(cell, state))
+				break;
+			if ((state & (Board.MINE | Board.COUNT_MASK)) != 0)
+				continue;
+			int count = field.getNeighbors(cell, adjacent);
+			for (int i = 0; i < count; i++) {
+				long next = adjacent[i];
+				int nextState = field.getState(next);
+				if ((nextState & (Board.REVEALED | Board.FLAGGED)) == 0) {
+					field.setState(next, nextState | Board.REVEALED);
+					if (tail - head == pending.length)
+						grow(head);
+					pending[(int) (tail++ & (pending.length - 1))] = next;
+				}
+			}
+		}
+		// cells still pending were marked as opened, but were never opened
+		while (head < tail) {
+			long cell = pending[(int) (head++ & (pending.length - 1))];
+			field.setState(cell, field.getState(cell) & ~Board.REVEALED);
+		}
+	}
+
+	/**
+	 * Doubles the ring of pending cells, which is full, keeping every cell at
+	 * the same position modulo the new length.
+	 */
+	private void grow(long head) {
+		int length = pending.length;
+		long[] grown = new long[2 * length];
+		for (int i = 0; i < length; i++) {
+			long position = head + i;
+			grown[(int) (position & (2 * length - 1))] = pending[(int) (position & (length - 1))];
+		}
+		pending = grown;
+	}
+
+	/**
+	 * Opens the neighbors of an opened cell, if it has as many flagged
+	 * neighbors as neighboring mines.
+	 */
+	public void chord(long cell) {
+		int state = field.getState(cell);
+		if (field.isOver() || (state & Board.REVEALED) == 0)
+			return;
+		int count = field.getNeighbors(cell, adjacent);
+		int flagged = 0;
+		for (int i = 0; i < count; i++)
+			if ((field.getState(adjacent[i]) & Board.FLAGGED) != 0)
+				flagged++;
+		if (flagged != (state & Board.COUNT_MASK))
+			return;
+		// open overwrites adjacent, and does nothing once a mine ends the game
+		System.arraycopy(adjacent, 0, block, 0, count);
+		for (int i = 0; i < count; i++)
+			open(block[i]);
+	}
+
+	/**
+	 * Places or removes a flag on a cell that is not open.
+	 * @return 1 if a flag was placed, -1 if one was removed, or 0
+	 */
+	public int flag(long cell) {
+		int state = field.getState(cell);
+		if (field.isOver() || (state & Board.REVEALED) != 0)
+			return 0;
+		field.setState(cell, state ^ Board.FLAGGED);
+		return (state & Board.FLAGGED) == 0 ? 1 : -1;
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * SimpleStrategy.java: Plays the moves that follow from a single opened cell.
+ *
+ * If an opened cell already borders as many flags as mines, all of its other
+ * neighbors are safe, so it is chorded. If its unopened neighbors are exactly
+ * the mines it has left, they are flagged. When no cell allows either move,
+ * a random unopened cell is opened.
+ *
+ * A cell only allows a new move once one of its neighbors has been opened
+ * or flagged, so the opened cells are not all looked at for every move.
+ * Instead, each move is followed by a search from the cell it was played on
+ * for the cells it opened, which puts them and their opened neighbors on a
+ * worklist, and only the cells on the worklist are looked at.
+ */
+
+import java.util.*;
+
+public class SimpleStrategy implements Strategy {
+
+	private final int[] adjacent = new int[Topology.MAX_DEGREE];
+	private final int[] around = new int[Topology.MAX_DEGREE];
+
+	/* One generator for every game, so that no two games repeat its moves */
+	private final Random random;
+
+	/* Cells that are known to need no more moves */
+	private boolean[] done = new boolean[0];
+
+	/* Cells that were seen opened by an earlier search */
+	private boolean[] seen = new boolean[0];
+
+	/* Opened cells to look at again, since one of their neighbors changed */
+	private boolean[] queued = new boolean[0];
+	private int[] worklist = new int[0];
+	private int size = 0;
+
+	/* Cells waiting to be visited by the search for newly opened cells */
+	private int[] search = new int[0];
+
+	/* The move last returned, whose effects are not known yet */
+	private Move last;
+
+	public SimpleStrategy() {
+		this(new Random().nextLong());
+	}
+
+	/**
+	 * @param seed the seed of the random moves, for a Strategy whose games
+	 *            must be repeatable
+	 */
+	public SimpleStrategy(long seed) {
+		random = new Random(seed);
+	}
+
+	public void newGame(VisibleBoard board) {
+		int squares = board.getSquares();
+		if (done.length != squares) {
+			done = new boolean[squares];
+			seen = new boolean[squares];
+			queued = new boolean[squares];
+			worklist = new int[squares];
+			search = new int[squares];
+		} else {
+			Arrays.fill(done, false);
+			Arrays.fill(seen, false);
+			Arrays.fill(queued, false);
+		}
+		size = 0;
+		last = null;
+		// the game may have started with some cells open
+		for (int cell = 0; cell < squares; cell++) {
+			if (board.isRevealed(cell)) {
+				seen[cell] = true;
+				enqueue(cell);
+			}
+		}
+	}
+
+	public Move nextMove(VisibleBoard board) {
+		int cols = board.getNumCols();
+		if (last != null)
+			update(board, last.getY() * cols + last.getX(), last.getKind());
+
+		while (size > 0) {
+			int cell = worklist[--size];
+			queued[cell] = false;
+			int mines = board.getCount(cell);
+			if (done[cell] || mines < 0)
+				continue;
+			int count = board.getNeighbors(cell, adjacent);
+			int flags = 0;
+			int hidden = 0;
+			int lastHidden = -1;
+			for (int i = 0; i < count; i++) {
+				if (board.isFlagged(adjacent[i]))
+					flags++;
+				else if (!board.isRevealed(adjacent[i])) {
+					hidden++;
+					lastHidden = adjacent[i];
+				}
+			}
+			if (hidden == 0) {
+				done[cell] = true;
+				continue;
+			}
+			if (flags == mines)
+				return last = Move.chord(cell % cols, cell / cols);
+			if (flags + hidden == mines)
+				return last = Move.flag(lastHidden % cols, lastHidden / cols);
+		}
+
+		int squares = board.getSquares();
+		int start = random.nextInt(squares);
+		for (int i = 0; i < squares; i++) {
+			int cell = (start + i) % squares;
+			if (!board.isRevealed(cell) && !board.isFlagged(cell))
+				return last = Move.open(cell % cols, cell / cols);
+		}
+		return last = Move.open(0, 0);
+	}
+
+	/**
+	 * Puts the cells that a move may have given new moves to on the
+	 * worklist: the opened neighbors of a flag, or the cells that an opening
+	 * or a chord opened, together with their opened neighbors.
+	 */
+	private void update(VisibleBoard board, int cell, int kind) {
+		if (kind == Move.FLAG) {
+			int count = board.getNeighbors(cell, around);
+			for (int i = 0; i < count; i++)
+				if (board.isRevealed(around[i]))
+					enqueue(around[i]);
+		} else if (kind == Move.OPEN) {
+			discover(board, cell);
+		} else {
+			int count = board.getNeighbors(cell, around);
+			for (int i = 0; i < count; i++)
+				discover(board, around[i]);
+		}
+	}
+
+	/**
+	 * Finds the cells opened by a move on a cell. Every cell an opening
+	 * opens borders another one it opened, or is the cell itself, so the
+	 * search only follows cells that were not seen opened before.
+	 */
+	private void discover(VisibleBoard board, int start) {
+		if (seen[start] || !board.isRevealed(start))
+			return;
+		int top = 0;
+		search[top++] = start;
+		seen[start] = true;
+		while (top > 0) {
+			int cell = search[--top];
+			enqueue(cell);
+			int count = board.getNeighbors(cell, adjacent);
+			for (int i = 0; i < count; i++) {
+				int next = adjacent[i];
+				if (!board.isRevealed(next))
+					continue;
+				if (!seen[next]) {
+					seen[next] = true;
+					search[top++] = next;
+				} else
+					enqueue(next);
+			}
+		}
+	}
+
+	private void enqueue(int cell) {
+		if (!done[cell] && !queued[cell]) {
+			queued[cell] = true;
+			worklist[size++] = cell;
+		}
+	}
+}
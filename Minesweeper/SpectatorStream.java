@@ -0,0 +1,354 @@
+/*
+ * SpectatorStream.java: Lets any number of spectators watch a game while it
+ * is played, without ever slowing the game down.
+ *
+ * After every move, the thread that plays the game publishes a frame that
+ * lists the cells the move changed, each with its new visible state. Every
+ * keyframeInterval frames, and whenever a game starts, ends or changes size,
+ * a keyframe holding every cell is published instead, from which a
+ * spectator that joins late (or falls behind) can start over. Each frame is
+ * encoded once, into bytes that are shared by every spectator.
+ *
+ * Frames are kept in a ring of a fixed number of slots. Publishing a frame
+ * overwrites the oldest one and never waits for spectators. A Subscriber
+ * reads frames at its own pace; if the frame it wants next has already been
+ * overwritten, it skips ahead to the latest keyframe. No locks are taken by
+ * either side.
+ *
+ * The visible state of a cell is its packed state, as in the Board class,
+ * without the mine bit and count of cells that are not open, except that
+ * mines are shown once the game is lost. Frames are laid out as follows,
+ * with unsigned numbers as base-128 varints:
+ *
+ *   type             KEYFRAME or DELTA (one byte)
+ *   game number      varint
+ *   status           STARTED, WON and LOST bits (one byte)
+ *   mines remaining  varint, zigzag encoded since it may be negative
+ *   keyframes:       rows and cols (varints), then runs of equal cells as
+ *                    a length (varint) and a visible state (one byte)
+ *   deltas:          number of cells (varint), then for each cell, in
+ *                    increasing order, the gap from the previous cell
+ *                    minus one (varint) and its visible state (one byte)
+ */
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+public class SpectatorStream {
+
+	/* Types of frames */
+	public static final int DELTA = 0;
+	public static final int KEYFRAME = 1;
+
+	/* Bits of the status of the game */
+	public static final int STARTED = 1;
+	public static final int WON = 2;
+	public static final int LOST = 4;
+
+	private final int capacity;
+	private final int keyframeInterval;
+
+	private final AtomicReferenceArray<Frame> ring;
+	private final AtomicLong published = new AtomicLong(0);
+	private volatile Frame keyframe;
+
+	/* Only used by the publishing thread */
+	private int lastGameNumber = -1;
+	private int lastStatus = -1;
+	private int lastRows = -1;
+	private int lastCols = -1;
+	private int lastMines = 0;
+	private int sinceKeyframe = 0;
+	private byte[] buffer = new byte[256];
+	private int length;
+	private int[] sorted = new int[64];
+
+	/* Constructor */
+
+	/**
+	 * @param capacity the number of frames kept for spectators that fall
+	 *            behind, rounded up to a power of two
+	 * @param keyframeInterval the most frames between keyframes; at most
+	 *            half the capacity, so that a keyframe is always in the ring
+	 */
+	public SpectatorStream(int capacity, int keyframeInterval) {
+		this.capacity = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+		this.keyframeInterval = Math.max(1, Math.min(keyframeInterval, this.capacity / 2));
+		this.ring = new AtomicReferenceArray<Frame>(this.capacity);
+	}
+
+	/* Methods */
+
+	/**
+	 * Publishes the cells that a game has changed since its changes were
+	 * last cleared. This must be called after every move, before the changes
+	 * are cleared, and always from the same thread.
+	 * @param game the game being played
+	 * @param gameNumber a number that changes whenever a new game starts
+	 */
+	public void publish(Minesweeper game, int gameNumber) {
+		int status = (game.hasStarted() ? STARTED : 0) | (game.hasWon() ? WON : 0)
+				| (game.hasLost() ? LOST : 0);
+		int changes = game.getChangeCount();
+		boolean key = gameNumber != lastGameNumber || status != lastStatus
+				|| game.getNumRows() != lastRows || game.getNumCols() != lastCols
+				|| sinceKeyframe + 1 >= keyframeInterval
+				|| changes > game.getSquares() / 4 || game.hasChangedAll();
+		int mines = game.getMinesRemaining();
+		if (!key && changes == 0 && mines == lastMines)
+			return;
+
+		length = 0;
+		writeByte(key ? KEYFRAME : DELTA);
+		writeVarint(gameNumber);
+		writeByte(status);
+		writeVarint((mines << 1) ^ (mines >> 31));
+		Board board = game.getBoard();
+		boolean lost = game.hasLost();
+		if (key)
+			writeKeyframe(board, lost);
+		else
+			writeDelta(board, lost, game.getChanges(), changes);
+
+		long sequence = published.get();
+		Frame frame = new Frame(sequence, key, Arrays.copyOf(buffer, length));
+		ring.set((int) (sequence & (capacity - 1)), frame);
+		if (key) {
+			keyframe = frame;
+			sinceKeyframe = 0;
+		} else
+			sinceKeyframe++;
+		published.set(sequence + 1);
+
+		lastGameNumber = gameNumber;
+		lastStatus = status;
+		lastRows = game.getNumRows();
+		lastCols = game.getNumCols();
+		lastMines = mines;
+	}
+
+	/**
+	 * @return a new spectator, whose first frame will be the latest keyframe
+	 */
+	public Subscriber subscribe() {
+		return new Subscriber();
+	}
+
+	/**
+	 * @return the number of frames published so far
+	 */
+	public long getPublished() {
+		return published.get();
+	}
+
+	private void writeKeyframe(Board board, boolean lost) {
+		writeVarint(board.getNumRows());
+		writeVarint(board.getNumCols());
+		int squares = board.getNumRows() * board.getNumCols();
+		int i = 0;
+		while (i < squares) {
+			int state = visible(board.getState(i), lost);
+			int run = 1;
+			while (i + run < squares && visible(board.getState(i + run), lost) == state)
+				run++;
+			writeVarint(run);
+			writeByte(state);
+			i += run;
+		}
+	}
+
+	private void writeDelta(Board board, boolean lost, int[] changes, int count) {
+		if (sorted.length < count)
+			sorted = new int[Math.max(count, 2 * sorted.length)];
+		System.arraycopy(changes, 0, sorted, 0, count);
+		Arrays.sort(sorted, 0, count);
+		int distinct = 0;
+		for (int i = 0; i < count; i++)
+			if (distinct == 0 || sorted[distinct - 1] != sorted[i])
+				sorted[distinct++] = sorted[i];
+
+		writeVarint(distinct);
+		int previous = -1;
+		for (int i = 0; i < distinct; i++) {
+			writeVarint(sorted[i] - previous - 1);
+			writeByte(visible(board.getState(sorted[i]), lost));
+			previous = sorted[i];
+		}
+	}
+
+	/**
+	 * @return the state of a cell as a spectator may see it
+	 */
+	private static int visible(int state, boolean lost) {
+		if ((state & Board.REVEALED) != 0)
+			return state & (Board.REVEALED | Board.MINE | Board.COUNT_MASK);
+		return state & (Board.FLAGGED | Board.QUESTIONED | (lost ? Board.MINE : 0));
+	}
+
+	private void writeByte(int value) {
+		if (length == buffer.length)
+			buffer = Arrays.copyOf(buffer, 2 * length);
+		buffer[length++] = (byte) value;
+	}
+
+	private void writeVarint(int value) {
+		while ((value & ~0x7F) != 0) {
+			writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		writeByte(value);
+	}
+
+	/**
+	 * One encoded frame. Frames are immutable and shared by every spectator.
+	 */
+	public static final class Frame {
+		private final long sequence;
+		private final boolean keyframe;
+		private final byte[] data;
+
+		Frame(long sequence, boolean keyframe, byte[] data) {
+			this.sequence = sequence;
+			this.keyframe = keyframe;
+			this.data = data;
+		}
+
+		/**
+		 * @return the position of the frame among all frames published
+		 */
+		public long getSequence() {return sequence;}
+		public boolean isKeyframe() {return keyframe;}
+
+		/**
+		 * @return the encoded frame, as described above
+		 */
+		public byte[] getBytes() {return data.clone();}
+		public int getLength() {return data.length;}
+	}
+
+	/**
+	 * Reads frames for one spectator. A Subscriber may be used by one thread
+	 * at a time.
+	 */
+	public final class Subscriber {
+		/* The sequence of the next frame to read, or -1 before the first */
+		private long next = -1;
+		private long skipped = 0;
+
+		private Subscriber() {
+		}
+
+		/**
+		 * @return the next frame, or null if there is none yet. After falling
+		 *         too far behind, this is the latest keyframe.
+		 */
+		public Frame poll() {
+			if (next < 0)
+				return skipToKeyframe();
+			if (next >= published.get())
+				return null;
+			Frame frame = ring.get((int) (next & (capacity - 1)));
+			if (frame == null || frame.sequence != next)
+				return skipToKeyframe();
+			next++;
+			return frame;
+		}
+
+		private Frame skipToKeyframe() {
+			Frame frame = keyframe;
+			if (frame == null)
+				return null;
+			if (next >= 0)
+				skipped += frame.sequence - next;
+			next = frame.sequence + 1;
+			return frame;
+		}
+
+		/**
+		 * @return the number of frames that were skipped for falling behind
+		 */
+		public long getSkipped() {return skipped;}
+	}
+
+	/**
+	 * The visible state of a game, rebuilt from frames.
+	 */
+	public static class View {
+		private int rows = 0;
+		private int cols = 0;
+		private byte[] cells = new byte[0];
+		private int gameNumber = -1;
+		private int status = 0;
+		private int minesRemaining = 0;
+
+		/* Position of the decoder in the frame being applied */
+		private byte[] data;
+		private int position;
+
+		/**
+		 * Applies a frame. Deltas that arrive before the first keyframe are
+		 * ignored.
+		 * @return false if the frame was ignored
+		 */
+		public boolean apply(Frame frame) {
+			data = frame.data;
+			position = 0;
+			int type = readByte();
+			int number = readVarint();
+			if (type == DELTA && number != gameNumber)
+				return false;
+			gameNumber = number;
+			status = readByte();
+			int zigzag = readVarint();
+			minesRemaining = (zigzag >>> 1) ^ -(zigzag & 1);
+
+			if (type == KEYFRAME) {
+				rows = readVarint();
+				cols = readVarint();
+				if (cells.length != rows * cols)
+					cells = new byte[rows * cols];
+				int i = 0;
+				while (i < cells.length) {
+					int run = readVarint();
+					byte state = (byte) readByte();
+					Arrays.fill(cells, i, i + run, state);
+					i += run;
+				}
+			} else {
+				int count = readVarint();
+				int cell = -1;
+				for (int i = 0; i < count; i++) {
+					cell += readVarint() + 1;
+					cells[cell] = (byte) readByte();
+				}
+			}
+			return true;
+		}
+
+		private int readByte() {
+			return data[position++] & 0xFF;
+		}
+
+		private int readVarint() {
+			int value = 0;
+			for (int shift = 0; ; shift += 7) {
+				int b = readByte();
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return value;
+			}
+		}
+
+		/**
+		 * @return the visible state of a cell, packed as in the Board class
+		 */
+		public int getState(int x, int y) {return cells[y * cols + x] & 0xFF;}
+		public int getNumRows() {return rows;}
+		public int getNumCols() {return cols;}
+		public int getGameNumber() {return gameNumber;}
+		public boolean hasStarted() {return (status & STARTED) != 0;}
+		public boolean hasWon() {return (status & WON) != 0;}
+		public boolean hasLost() {return (status & LOST) != 0;}
+		public int getMinesRemaining() {return minesRemaining;}
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Strategy.java: A player of Minesweeper, such as a solver or a bot.
+ *
+ * A Strategy only ever sees the VisibleBoard of a game: the cells that have
+ * been opened and their neighbor counts, and the flags. It cannot see where
+ * the mines are. Each time it is asked, it returns one Move, which the caller
+ * plays. A Strategy object plays one game at a time, but it may be reused for
+ * any number of games one after another.
+ */
+
+public interface Strategy {
+
+	/**
+	 * Called before the first move of each game.
+	 * @param board the view of the game that will be played
+	 */
+	void newGame(VisibleBoard board);
+
+	/**
+	 * @param board the view of the game being played
+	 * @return the next move to play
+	 */
+	Move nextMove(VisibleBoard board);
+
+	/**
+	 * A move on the cell in column x and row y.
+	 */
+	public static final class Move {
+		public static final int OPEN = 0;
+		public static final int FLAG = 1;
+		public static final int CHORD = 2;
+
+		private final int kind;
+		private final int x;
+		private final int y;
+
+		public Move(int kind, int x, int y) {
+			this.kind = kind;
+			this.x = x;
+			this.y = y;
+		}
+
+		public static Move open(int x, int y) {return new Move(OPEN, x, y);}
+		public static Move flag(int x, int y) {return new Move(FLAG, x, y);}
+		public static Move chord(int x, int y) {return new Move(CHORD, x, y);}
+
+		/**
+		 * Plays the move on a game.
+		 * @param game the game to play on
+		 */
+		public void playOn(Minesweeper game) {
+			if (kind == OPEN)
+				game.open(x, y);
+			else if (kind == FLAG)
+				game.flag(x, y);
+			else
+				game.chord(x, y);
+		}
+
+		public int getKind() {return kind;}
+		public int getX() {return x;}
+		public int getY() {return y;}
+
+		public String toString() {
+			return (kind == OPEN ? "open" : kind == FLAG ? "flag" : "chord") + " " + x + " " + y;
+		}
+	}
+}
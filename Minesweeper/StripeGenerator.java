@@ -0,0 +1,291 @@
+/*
+ * StripeGenerator.java: Places the mines of a very large Board and counts
+ * their neighbors on all the threads of a ForkJoinPool.
+ *
+ * The Board is cut into horizontal stripes of about STRIPE_CELLS cells. How
+ * many mines fall in each stripe is drawn from the multivariate
+ * hypergeometric distribution, the same distribution that placing every mine
+ * uniformly at random would give. The split is done by halving: the mines of
+ * a range of stripes are split between its two halves by one hypergeometric
+ * draw, and each half is split again, in parallel, down to single stripes.
+ * Each stripe then places its own mines uniformly within itself.
+ *
+ * Every draw uses a SplittableRandom seeded from the seed of the Board and
+ * the position of the draw in the tree of splits, and the stripes depend
+ * only on the size of the Board, so the same seed gives a bit-identical
+ * Board no matter how many threads there are or in which order they run.
+ *
+ * Once every mine is placed, each stripe counts the neighboring mines of its
+ * own cells, reading the rows around it (its halo) but writing only to
+ * itself, so no locking is needed.
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class StripeGenerator {
+
+	/**
+	 * Boards of at least this many cells are worth generating in parallel.
+	 */
+	public static final int MIN_CELLS = 1 << 22;
+
+	/* Approximate number of cells of a stripe */
+	private static final int STRIPE_CELLS = 1 << 16;
+
+	/* log(n!) for small n; larger n use Stirling's series */
+	private static final int FACTORIAL_TABLE = 256;
+	private static final double[] LOG_FACTORIAL = new double[FACTORIAL_TABLE];
+	static {
+		for (int i = 2; i < FACTORIAL_TABLE; i++)
+			LOG_FACTORIAL[i] = LOG_FACTORIAL[i - 1] + StrictMath.log(i);
+	}
+
+	private final ForkJoinPool pool;
+
+	/* Constructor */
+
+	/**
+	 * @param pool the threads to generate Boards on
+	 */
+	public StripeGenerator(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/* Methods */
+
+	/**
+	 * Replaces every cell of a Board, placing mines at random and counting
+	 * the neighboring mines of every cell.
+	 * @param board the Board to fill
+	 * @param mines the number of mines
+	 * @param skip the index of a cell that must not be a mine, or -1
+	 * @param seed the seed of the placement
+	 */
+	public void generate(Board board, int mines, int skip, long seed) {
+		Layout layout = new Layout(board, skip, seed);
+		pool.invoke(new Place(layout, 0, layout.stripes, mines, 1));
+		pool.invoke(new Count(layout, 0, layout.stripes));
+	}
+
+	/**
+	 * @return a random number generator for one draw, independent of those
+	 *         of every other id
+	 */
+	private static SplittableRandom random(long seed, long id) {
+		// the finalizer of SplitMix64
+		long z = seed + id * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return new SplittableRandom(z ^ (z >>> 31));
+	}
+
+	/**
+	 * Draws from the hypergeometric distribution: the number of marked items
+	 * among n items drawn without replacement from N items of which K are
+	 * marked. The draw inverts the distribution function, starting from the
+	 * mode and working outwards, so it takes time proportional to the
+	 * standard deviation.
+	 */
+	static long hypergeometric(SplittableRandom random, long N, long K, long n) {
+		long min = Math.max(0, n - (N - K));
+		long max = Math.min(n, K);
+		if (min == max)
+			return min;
+		long mode = (long) ((double) (n + 1) * (K + 1) / (N + 2));
+		mode = Math.max(min, Math.min(max, mode));
+		double p = StrictMath.exp(logChoose(K, mode) + logChoose(N - K, n - mode) - logChoose(N, n));
+
+		double u = random.nextDouble() - p;
+		if (u < 0)
+			return mode;
+		long lo = mode;
+		long hi = mode;
+		double pLo = p;
+		double pHi = p;
+		while ((lo > min && pLo > 0) || (hi < max && pHi > 0)) {
+			if (hi < max) {
+				pHi *= (double) (K - hi) * (n - hi) / ((double) (hi + 1) * (N - K - n + hi + 1));
+				hi++;
+				u -= pHi;
+				if (u < 0)
+					return hi;
+			}
+			if (lo > min) {
+				pLo *= (double) lo * (N - K - n + lo) / ((double) (K - lo + 1) * (n - lo + 1));
+				lo--;
+				u -= pLo;
+				if (u < 0)
+					return lo;
+			}
+		}
+		// only rounding leaves any probability unaccounted for
+		return mode;
+	}
+
+	private static double logChoose(long n, long k) {
+		return logFactorial(n) - logFactorial(k) - logFactorial(n - k);
+	}
+
+	private static double logFactorial(long n) {
+		if (n < FACTORIAL_TABLE)
+			return LOG_FACTORIAL[(int) n];
+		double x = n;
+		return x * StrictMath.log(x) - x + 0.5 * StrictMath.log(2 * Math.PI * x)
+				+ 1 / (12 * x) - 1 / (360 * x * x * x);
+	}
+
+	/**
+	 * How a Board is cut into stripes.
+	 */
+	private static class Layout {
+		final Board board;
+		final int cols;
+		final int rows;
+		final int stripeRows;
+		final int stripes;
+		final int skip;
+		final long seed;
+
+		Layout(Board board, int skip, long seed) {
+			this.board = board;
+			this.rows = board.getNumRows();
+			this.cols = board.getNumCols();
+			this.stripeRows = Math.max(1, STRIPE_CELLS / Math.max(cols, 1));
+			this.stripes = (rows + stripeRows - 1) / stripeRows;
+			this.skip = skip;
+			this.seed = seed;
+		}
+
+		int start(int stripe) {
+			return Math.min(rows, stripe * stripeRows) * cols;
+		}
+
+		/**
+		 * @return the number of cells of stripes from up to to that may hold a mine
+		 */
+		long free(int from, int to) {
+			int start = start(from);
+			int end = start(to);
+			return end - start - (skip >= start && skip < end ? 1 : 0);
+		}
+	}
+
+	/**
+	 * Splits the mines of a range of stripes between its halves, and places
+	 * the mines of single stripes.
+	 */
+	private static class Place extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Layout layout;
+		private final int from;
+		private final int to;
+		private final long mines;
+		private final long node;
+
+		/**
+		 * @param node the position in the tree of splits: 1 for the root,
+		 *            and 2 * node and 2 * node + 1 for its halves
+		 */
+		Place(Layout layout, int from, int to, long mines, long node) {
+			this.layout = layout;
+			this.from = from;
+			this.to = to;
+			this.mines = mines;
+			this.node = node;
+		}
+
+		protected void compute() {
+			if (to - from == 1) {
+				placeStripe();
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			long left = hypergeometric(random(layout.seed, node),
+					layout.free(from, to), mines, layout.free(from, mid));
+			invokeAll(new Place(layout, from, mid, left, 2 * node),
+					new Place(layout, mid, to, mines - left, 2 * node + 1));
+		}
+
+		/**
+		 * Chooses which cells of the stripe are mines by Floyd's algorithm,
+		 * choosing the cells that are not mines instead when there are fewer
+		 * of them.
+		 */
+		private void placeStripe() {
+			Board board = layout.board;
+			int start = layout.start(from);
+			int end = layout.start(to);
+			int n = (int) layout.free(from, to);
+			boolean dense = mines > n / 2;
+			int k = (int) (dense ? n - mines : mines);
+			for (int i = start; i < end; i++)
+				board.setState(i, dense && i != layout.skip ? Board.MINE : 0);
+
+			// stripes are numbered from -1 down, so they never share a seed
+			// with a split
+			SplittableRandom random = random(layout.seed, -1 - from);
+			for (int j = n - k; j < n; j++) {
+				int cell = cellOf(random.nextInt(j + 1), start);
+				if (board.isMine(cell) != dense)
+					cell = cellOf(j, start);
+				board.setFlag(cell, Board.MINE, !dense);
+			}
+		}
+
+		/**
+		 * @return the index of the cell at a position among the cells of the
+		 *         stripe that may hold a mine
+		 */
+		private int cellOf(int position, int start) {
+			int cell = start + position;
+			return layout.skip >= start && cell >= layout.skip ? cell + 1 : cell;
+		}
+	}
+
+	/**
+	 * Counts the neighboring mines of every cell of a range of stripes.
+	 */
+	private static class Count extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Layout layout;
+		private final int from;
+		private final int to;
+
+		Count(Layout layout, int from, int to) {
+			this.layout = layout;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from > 1) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Count(layout, from, mid), new Count(layout, mid, to));
+				return;
+			}
+			Board board = layout.board;
+			Topology topology = board.getTopology();
+			int[] offsets = topology.getOffsets();
+			int[] indices = topology.getIndices();
+			int[] adjacent = new int[Topology.MAX_DEGREE];
+			int end = layout.start(to);
+			for (int cell = layout.start(from); cell < end; cell++) {
+				int neighbors = 0;
+				if (offsets != null) {
+					for (int i = offsets[cell]; i < offsets[cell + 1]; i++)
+						if (board.isMine(indices[i]))
+							neighbors++;
+				} else {
+					int count = topology.getNeighbors(cell, adjacent);
+					for (int i = 0; i < count; i++)
+						if (board.isMine(adjacent[i]))
+							neighbors++;
+				}
+				board.setCount(cell, neighbors);
+			}
+		}
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * Topology.java: Describes which cells of a Board are adjacent to each other.
+ *
+ * The neighbors of every cell are computed once, by the factory that creates
+ * the Topology, and stored in compressed sparse row form: the neighbors of
+ * cell i are indices[offsets[i]] up to (but not including)
+ * indices[offsets[i + 1]]. Cells are numbered row * cols + col, as in the
+ * Board class. Since only cells that actually exist are stored, iterating
+ * over the neighbors of a cell needs no bounds checks, and every kind of
+ * board uses the same loop. Loops that visit many cells read the two arrays
+ * directly, through getOffsets and getIndices; getNeighbors copies the
+ * neighbors of one cell instead.
+ *
+ * The table takes about 32 bytes per cell, many times the board itself, so
+ * a board of more than MAX_TABLE_CELLS cells gets no table at all:
+ * getOffsets and getIndices return null for it, and the neighbors of a cell
+ * are computed again each time they are asked for, which is several times
+ * slower.
+ *
+ * Three kinds of boards are provided: the classic rectangular board, a
+ * toroidal board whose edges wrap around, and a hexagonal board in which
+ * odd rows are shifted half a cell to the right.
+ */
+
+public abstract class Topology {
+
+	/**
+	 * The largest number of neighbors that any cell can have.
+	 */
+	public static final int MAX_DEGREE = 8;
+
+	/**
+	 * The largest board whose neighbors are stored in a table.
+	 */
+	public static final int MAX_TABLE_CELLS = 1 << 20;
+
+	private final int rows;
+	private final int cols;
+
+	/* The table of neighbors, set once by build, or null */
+	private int[] offsets;
+	private int[] indices;
+
+	/* Constructors */
+
+	/**
+	 * @param rows Number of rows of the board
+	 * @param cols Number of columns of the board
+	 */
+	protected Topology(int rows, int cols) {
+		this.rows = rows;
+		this.cols = cols;
+	}
+
+	/**
+	 * Builds the table of neighbors for every cell, unless the board has more
+	 * than MAX_TABLE_CELLS cells. This is called by the factories once the
+	 * Topology is fully constructed, since collectNeighbors may depend on the
+	 * fields of a subclass.
+	 * @return the Topology
+	 */
+	private static Topology withTable(Topology topology) {
+		topology.build();
+		return topology;
+	}
+
+	private void build() {
+		if ((long) rows * cols > MAX_TABLE_CELLS)
+			return;
+		int[] offsets = new int[rows * cols + 1];
+		int[] scratch = new int[MAX_DEGREE];
+		int[] table = new int[rows * cols * MAX_DEGREE];
+		int size = 0;
+		for (int row = 0; row < rows; row++) {
+			for (int col = 0; col < cols; col++) {
+				int count = collectNeighbors(row, col, scratch);
+				System.arraycopy(scratch, 0, table, size, count);
+				size += count;
+				offsets[row * cols + col + 1] = size;
+			}
+		}
+		this.indices = java.util.Arrays.copyOf(table, size);
+		this.offsets = offsets;
+	}
+
+	/* Factories */
+
+	/**
+	 * @return a board in which each cell borders the (up to) eight cells around it
+	 */
+	public static Topology rectangular(int rows, int cols) {
+		return withTable(new Rectangular(rows, cols));
+	}
+
+	/**
+	 * @return a board in which each cell borders the eight cells around it, and
+	 *         the cells on opposite edges border each other
+	 */
+	public static Topology toroidal(int rows, int cols) {
+		return withTable(new Toroidal(rows, cols));
+	}
+
+	/**
+	 * @return a board of hexagons in which each cell borders (up to) six cells
+	 */
+	public static Topology hexagonal(int rows, int cols) {
+		return withTable(new Hexagonal(rows, cols));
+	}
+
+	/* Methods */
+
+	/**
+	 * Finds the neighbors of a cell while the table is being built, or each
+	 * time they are asked for on a board without a table.
+	 * @param row Row index of cell
+	 * @param col Column index of cell
+	 * @param out Array to write the indices of the neighbors to
+	 * @return the number of neighbors written
+	 */
+	protected abstract int collectNeighbors(int row, int col, int[] out);
+
+	/**
+	 * Copies the indices of the neighbors of a cell into an array.
+	 * @param cell Index of the cell
+	 * @param out Array of at least MAX_DEGREE elements
+	 * @return the number of neighbors of the cell
+	 */
+	public final int getNeighbors(int cell, int[] out) {
+		if (offsets == null)
+			return collectNeighbors(cell / cols, cell % cols, out);
+		int start = offsets[cell];
+		int count = offsets[cell + 1] - start;
+		System.arraycopy(indices, start, out, 0, count);
+		return count;
+	}
+
+	/**
+	 * The neighbors of cell i are getIndices()[getOffsets()[i]] up to (but
+	 * not including) getIndices()[getOffsets()[i + 1]]. The array is shared
+	 * and must not be modified.
+	 * @return the start of the neighbors of each cell in getIndices, and one
+	 *         more element for the end of the last, or null if the board has
+	 *         more than MAX_TABLE_CELLS cells
+	 */
+	public final int[] getOffsets() {
+		return offsets;
+	}
+
+	/**
+	 * @return the neighbors of every cell, cell by cell, or null if the board
+	 *         has more than MAX_TABLE_CELLS cells. The array is shared and
+	 *         must not be modified.
+	 */
+	public final int[] getIndices() {
+		return indices;
+	}
+
+	/**
+	 * @param cell Index of the cell
+	 * @return the number of neighbors of the cell
+	 */
+	public final int getDegree(int cell) {
+		if (offsets == null)
+			return collectNeighbors(cell / cols, cell % cols, new int[MAX_DEGREE]);
+		return offsets[cell + 1] - offsets[cell];
+	}
+
+	public int getNumRows() {return this.rows;}
+	public int getNumCols() {return this.cols;}
+
+	/* Implementations */
+
+	private static class Rectangular extends Topology {
+		Rectangular(int rows, int cols) {
+			super(rows, cols);
+		}
+
+		protected int collectNeighbors(int row, int col, int[] out) {
+			int count = 0;
+			for (int i = row - 1; i < row + 2; i++)
+				for (int j = col - 1; j < col + 2; j++)
+					if ((i != row || j != col) && i > -1 && i < getNumRows()
+							&& j > -1 && j < getNumCols())
+						out[count++] = i * getNumCols() + j;
+			return count;
+		}
+	}
+
+	private static class Toroidal extends Topology {
+		Toroidal(int rows, int cols) {
+			super(rows, cols);
+		}
+
+		protected int collectNeighbors(int row, int col, int[] out) {
+			int rows = getNumRows();
+			int cols = getNumCols();
+			int self = row * cols + col;
+			int count = 0;
+			for (int i = row - 1; i < row + 2; i++) {
+				for (int j = col - 1; j < col + 2; j++) {
+					int cell = ((i + rows) % rows) * cols + (j + cols) % cols;
+					// on very narrow boards, a cell may wrap onto itself or
+					// reach the same neighbor from two directions
+					if (cell != self && !contains(out, count, cell))
+						out[count++] = cell;
+				}
+			}
+			return count;
+		}
+
+		private static boolean contains(int[] array, int length, int value) {
+			for (int i = 0; i < length; i++)
+				if (array[i] == value)
+					return true;
+			return false;
+		}
+	}
+
+	private static class Hexagonal extends Topology {
+		/* column offsets of the rows above and below, for even and odd rows */
+		private static final int[][] SHIFTS = { { -1, 0 }, { 0, 1 } };
+
+		Hexagonal(int rows, int cols) {
+			super(rows, cols);
+		}
+
+		protected int collectNeighbors(int row, int col, int[] out) {
+			int[] shift = SHIFTS[row & 1];
+			int count = 0;
+			for (int i = row - 1; i < row + 2; i++) {
+				if (i < 0 || i >= getNumRows())
+					continue;
+				if (i == row) {
+					if (col > 0)
+						out[count++] = i * getNumCols() + col - 1;
+					if (col < getNumCols() - 1)
+						out[count++] = i * getNumCols() + col + 1;
+				} else {
+					for (int k = 0; k < 2; k++) {
+						int j = col + shift[k];
+						if (j > -1 && j < getNumCols())
+							out[count++] = i * getNumCols() + j;
+					}
+				}
+			}
+			return count;
+		}
+	}
+}
@@ -0,0 +1,271 @@
+/*
+ * Tournament.java: Plays several Strategies against the same set of boards
+ * and compares them.
+ *
+ * Game i of a tournament is played on the board with seed (seed + i), and the
+ * tournament itself opens the middle cell as the first move of every game,
+ * so every Strategy faces exactly the same boards. Games are split among a
+ * pool of worker threads. Each game is played by a new Strategy, made by a
+ * factory from a seed that depends only on the seed of the tournament and
+ * the number of the game, so a tournament plays the same moves every time
+ * it is run, with any number of threads.
+ *
+ * Every Strategy plays the same boards, so the boards are generated once
+ * and kept in a BoardCache that all of the workers share.
+ *
+ * For each Strategy, the tournament reports the win rate, the number of
+ * moves per second, and a histogram of the time taken by each move (the
+ * Strategy choosing it plus the game playing it) in power-of-two buckets of
+ * nanoseconds.
+ *
+ * Usage: java Tournament games rows cols mines seed threads Strategy...
+ * For example: java Tournament 10000 16 30 99 1 4 SimpleStrategy RandomStrategy
+ */
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+public class Tournament {
+
+	/* Games given to a worker at a time */
+	private static final int BATCH = 256;
+	private static final int BUCKETS = 64;
+	private static final long CACHE_BYTES = 64L << 20;
+
+	private final int rows;
+	private final int cols;
+	private final int mines;
+	private final long seed;
+	private final int threads;
+	private final BoardCache cache = new BoardCache(CACHE_BYTES);
+
+	/* Constructor */
+
+	/**
+	 * @param rows number of rows of every board
+	 * @param cols number of columns of every board
+	 * @param mines number of mines of every board
+	 * @param seed seed of the first board
+	 * @param threads number of worker threads
+	 */
+	public Tournament(int rows, int cols, int mines, long seed, int threads) {
+		this.rows = rows;
+		this.cols = cols;
+		this.mines = mines;
+		this.seed = seed;
+		this.threads = threads;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 7) {
+			System.err.println("Usage: java Tournament games rows cols mines seed threads Strategy...");
+			return;
+		}
+		int games = Integer.parseInt(args[0]);
+		Tournament tournament = new Tournament(Integer.parseInt(args[1]),
+				Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+				Long.parseLong(args[4]), Integer.parseInt(args[5]));
+		for (int i = 6; i < args.length; i++) {
+			Class<? extends Strategy> strategy = Class.forName(args[i]).asSubclass(Strategy.class);
+			System.out.println(tournament.play(strategy, games));
+		}
+		System.out.println(tournament.getCache());
+	}
+
+	/* Methods */
+
+	/**
+	 * Plays a number of games with a Strategy.
+	 * @param strategy the Strategy; it must have a public constructor that
+	 *            takes a long seed, or else a public no-argument constructor
+	 * @param games the number of games
+	 * @return the combined results of all of the games
+	 */
+	public Result play(final Class<? extends Strategy> strategy, int games)
+			throws InterruptedException, ExecutionException {
+		Constructor<? extends Strategy> seeded = null;
+		Constructor<? extends Strategy> unseeded = null;
+		try {
+			seeded = strategy.getConstructor(long.class);
+		} catch (NoSuchMethodException e) {
+			try {
+				unseeded = strategy.getConstructor();
+			} catch (NoSuchMethodException f) {
+				throw new IllegalArgumentException(strategy.getName() + " has no public constructor to call");
+			}
+		}
+		final Constructor<? extends Strategy> withSeed = seeded;
+		final Constructor<? extends Strategy> withoutSeed = unseeded;
+		return play(strategy.getSimpleName(), new LongFunction<Strategy>() {
+			public Strategy apply(long seed) {
+				try {
+					return withSeed != null ? withSeed.newInstance(seed) : withoutSeed.newInstance();
+				} catch (ReflectiveOperationException e) {
+					throw new IllegalStateException("Could not create " + strategy.getName(), e);
+				}
+			}
+		}, games);
+	}
+
+	/**
+	 * Plays a number of games with a Strategy.
+	 * @param name the name of the Strategy in the results
+	 * @param strategies makes the Strategy of each game from a seed for its
+	 *            random choices
+	 * @param games the number of games
+	 * @return the combined results of all of the games
+	 */
+	public Result play(String name, final LongFunction<Strategy> strategies, int games)
+			throws InterruptedException, ExecutionException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayList<Future<Result>> batches = new ArrayList<Future<Result>>();
+		long start = System.nanoTime();
+		try {
+			for (int first = 0; first < games; first += BATCH) {
+				final int from = first;
+				final int to = Math.min(games, first + BATCH);
+				batches.add(pool.submit(new Callable<Result>() {
+					public Result call() throws Exception {
+						return playBatch(strategies, from, to);
+					}
+				}));
+			}
+			Result total = new Result(name);
+			for (Future<Result> batch : batches)
+				total.add(batch.get());
+			total.wallNanos = System.nanoTime() - start;
+			return total;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private Result playBatch(LongFunction<Strategy> strategies, int from, int to) {
+		Result result = new Result(null);
+		Minesweeper game = new Minesweeper(rows, cols, mines);
+		game.setCache(cache);
+		VisibleBoard board = new VisibleBoard(game);
+		// a Strategy that makes no progress must not play forever
+		int maxMoves = 4 * game.getSquares();
+
+		for (int i = from; i < to; i++) {
+			game.clear();
+			game.setSeed(seed + i);
+			game.open(cols / 2, rows / 2);
+			game.clearChanges();
+			Strategy strategy = strategies.apply(strategySeed(i));
+			strategy.newGame(board);
+
+			int moves = 0;
+			while (!game.isOver() && moves < maxMoves) {
+				long before = System.nanoTime();
+				strategy.nextMove(board).playOn(game);
+				long elapsed = System.nanoTime() - before;
+				game.clearChanges();
+				result.record(elapsed);
+				moves++;
+			}
+			result.games++;
+			if (game.hasWon())
+				result.wins++;
+		}
+		return result;
+	}
+
+	/**
+	 * @return the seed of the Strategy of game i, which is mixed by the
+	 *         finalizer of SplitMix64 so that it is unrelated to the seed of
+	 *         the board
+	 */
+	private long strategySeed(int i) {
+		long z = (seed + i) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @return the cache of the boards played, shared by every Strategy
+	 */
+	public BoardCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * The results of some games played by one Strategy.
+	 */
+	public static class Result {
+		private final String name;
+		private long games = 0;
+		private long wins = 0;
+		private long moves = 0;
+		private long moveNanos = 0;
+		private long wallNanos = 0;
+		private final long[] histogram = new long[BUCKETS];
+
+		Result(String name) {
+			this.name = name;
+		}
+
+		private void record(long nanos) {
+			moves++;
+			moveNanos += nanos;
+			histogram[BUCKETS - 1 - Long.numberOfLeadingZeros(Math.max(nanos, 1))]++;
+		}
+
+		private void add(Result other) {
+			games += other.games;
+			wins += other.wins;
+			moves += other.moves;
+			moveNanos += other.moveNanos;
+			for (int i = 0; i < BUCKETS; i++)
+				histogram[i] += other.histogram[i];
+		}
+
+		/**
+		 * @param fraction between 0 and 1
+		 * @return an upper bound, in nanoseconds, on that fraction of the
+		 *         move times
+		 */
+		public long getLatencyPercentile(double fraction) {
+			long target = (long) Math.ceil(fraction * moves);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += histogram[i];
+				if (seen >= target && seen > 0)
+					return (2L << i) - 1;
+			}
+			return 0;
+		}
+
+		public long getGames() {return games;}
+		public long getWins() {return wins;}
+		public long getMoves() {return moves;}
+		public double getWinRate() {return games == 0 ? 0 : (double) wins / games;}
+
+		/**
+		 * @return the moves played per second of time spent on moves, summed
+		 *         over all threads
+		 */
+		public double getMovesPerSecond() {
+			return moveNanos == 0 ? 0 : moves * 1e9 / moveNanos;
+		}
+
+		public long[] getHistogram() {return histogram.clone();}
+
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(String.format("%s: %d games, %.2f%% won, %d moves, %.0f moves/s per thread, %.2f s%n",
+					name, games, 100 * getWinRate(), moves, getMovesPerSecond(), wallNanos / 1e9));
+			sb.append(String.format("  move latency p50 < %d ns, p90 < %d ns, p99 < %d ns, max < %d ns%n",
+					getLatencyPercentile(0.5), getLatencyPercentile(0.9),
+					getLatencyPercentile(0.99), getLatencyPercentile(1)));
+			for (int i = 0; i < BUCKETS; i++)
+				if (histogram[i] > 0)
+					sb.append(String.format("  [%d, %d) ns: %d%n", 1L << i, 2L << i, histogram[i]));
+			return sb.toString();
+		}
+	}
+}
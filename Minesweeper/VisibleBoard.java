@@ -0,0 +1,62 @@
+/*
+ * VisibleBoard.java: A read-only view of a Minesweeper game that shows only
+ * what a player can see. Unopened cells give away nothing about whether
+ * they hold a mine, so a Strategy given this view cannot cheat.
+ */
+
+public class VisibleBoard {
+
+	/**
+	 * The count returned for a cell that has not been opened.
+	 */
+	public static final int UNKNOWN = -2;
+
+	private final Minesweeper game;
+	private final Board board;
+	private final Topology topology;
+
+	/* Constructor */
+
+	/**
+	 * @param game the game to view
+	 */
+	public VisibleBoard(Minesweeper game) {
+		this.game = game;
+		this.board = game.getBoard();
+		this.topology = game.getTopology();
+	}
+
+	/* Methods */
+
+	/**
+	 * @param cell index of the cell, row * getNumCols() + col
+	 * @return the number of mines the opened cell borders, -1 for an opened
+	 *         mine, or UNKNOWN if the cell has not been opened
+	 */
+	public int getCount(int cell) {
+		if (!board.isRevealed(cell))
+			return UNKNOWN;
+		return board.isMine(cell) ? -1 : board.getCount(cell);
+	}
+
+	public boolean isRevealed(int cell) {return board.isRevealed(cell);}
+	public boolean isFlagged(int cell) {return board.isFlagged(cell);}
+
+	/**
+	 * Copies the indices of the neighbors of a cell into an array.
+	 * @param cell index of the cell
+	 * @param out array of at least Topology.MAX_DEGREE elements
+	 * @return the number of neighbors
+	 */
+	public int getNeighbors(int cell, int[] out) {
+		return topology.getNeighbors(cell, out);
+	}
+
+	public int getNumRows() {return game.getNumRows();}
+	public int getNumCols() {return game.getNumCols();}
+	public int getSquares() {return game.getSquares();}
+	public int getMines() {return game.getMines();}
+	public int getMinesRemaining() {return game.getMinesRemaining();}
+	public boolean hasStarted() {return game.hasStarted();}
+	public boolean isOver() {return game.isOver();}
+}